@@ -68,9 +68,9 @@ public class ACObjFunc implements MultivariateFunction {
             CommonOps_DDRM.add(temp, X, result);
             CommonOps_DDRM.divide(result, scv_j, acfCoeff);
         }
-        double e0_sq = t.moments[0] * t.moments[0];
-        double trace_scv = (t.moments[1] - e0_sq) / e0_sq;
-        DMatrixRMaj trace_ac = new DMatrixRMaj(t.ac);
+        double e0_sq = t.moments()[0] * t.moments()[0];
+        double trace_scv = (t.moments()[1] - e0_sq) / e0_sq;
+        DMatrixRMaj trace_ac = new DMatrixRMaj(t.getAc());
         double acNorm = NormOps_DDRM.normP2(trace_ac);
         DMatrixRMaj ac_difference = new DMatrixRMaj();
         CommonOps_DDRM.subtract(trace_ac, acfCoeff, ac_difference);
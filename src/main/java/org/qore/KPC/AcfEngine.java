@@ -0,0 +1,271 @@
+package org.qore.KPC;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the autocorrelation of a vector of IATs at a given set of lags,
+ * choosing between direct summation and FFT from an estimate of their cost.
+ * Direct summation costs about (n - k) multiply-adds per lag k and is split
+ * across lags on the shared pool; the FFT costs about L log2 L for a padded
+ * length L of at least n plus the largest lag, whatever the number of lags,
+ * and runs on one thread.
+ * Both estimate sum_{t<n-k} (x_t - m)(x_{t+k} - m) / sum_t (x_t - m)^2.
+ */
+final class AcfEngine {
+    /**
+     * Cost of one unit of L log2 L of the FFT round trip, relative to one
+     * multiply-add of direct summation, measured on a single core.
+     */
+    static final double FFT_COST = 5;
+
+    /**
+     * Number of values of x summed for all the lags of a task before moving
+     * on, so that the block stays in cache.
+     */
+    static final int BLOCK = 1 << 12;
+
+    /**
+     * Smallest number of multiply-adds worth running as a separate task.
+     */
+    static final long MIN_WORK = 1L << 20;
+
+    private AcfEngine() {}
+
+    /**
+     * Computes the autocorrelation at the given lags.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param mean Mean of the IATs.
+     * @param lags Lags of the autocorrelations, non-negative in any order.
+     * @return Autocorrelation at each lag, 0 for lags of n or more.
+     */
+    static double[] autocorrelation(double[] x, int n, double mean, int[] lags) {
+        return autocorrelation(x, 0, n, mean, lags);
+    }
+
+    /**
+     * Computes the autocorrelation of a range of a vector at the given lags.
+     *
+     * @param x Vector of IATs.
+     * @param off Index of the first IAT of the range.
+     * @param n Number of IATs in the range.
+     * @param mean Mean of the IATs of the range.
+     * @param lags Lags of the autocorrelations, non-negative in any order.
+     * @return Autocorrelation at each lag, 0 for lags of n or more.
+     */
+    static double[] autocorrelation(double[] x, int off, int n, double mean, int[] lags) {
+        double[] sums = lagSums(x, off, n, mean, lags);
+        double acov0 = 0;
+        for (int t = off; t < off + n; t++) {
+            double d = x[t] - mean;
+            acov0 += d * d;
+        }
+        for (int i = 0; i < lags.length; i++) {
+            sums[i] /= acov0;
+        }
+        return sums;
+    }
+
+    /**
+     * Computes the sums of lagged products sum_{t<n-k} (x_t - c)(x_{t+k} - c)
+     * at the given lags, by the cheaper of direct summation and FFT.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param c Value subtracted from the IATs, usually their mean.
+     * @param lags Lags of the sums, non-negative in any order.
+     * @return Sum at each lag, 0 for lags of n or more.
+     */
+    static double[] lagSums(double[] x, int n, double c, int[] lags) {
+        return lagSums(x, 0, n, c, lags);
+    }
+
+    /**
+     * Computes the sums of lagged products of a range of a vector.
+     *
+     * @param x Vector of IATs.
+     * @param off Index of the first IAT of the range.
+     * @param n Number of IATs in the range.
+     * @param c Value subtracted from the IATs.
+     * @param lags Lags of the sums, non-negative in any order.
+     * @return Sum at each lag, 0 for lags of n or more.
+     */
+    static double[] lagSums(double[] x, int off, int n, double c, int[] lags) {
+        int maxLag = 0;
+        for (int k : lags) {
+            maxLag = Math.max(maxLag, k);
+        }
+        if (n > 0 && fftCost(n, maxLag) < directCost(n, lags) / Parallel.POOL.getParallelism()) {
+            double[] full = fft(x, off, n, c, Math.min(maxLag, n - 1));
+            double[] result = new double[lags.length];
+            for (int i = 0; i < lags.length; i++) {
+                result[i] = lags[i] < full.length ? full[lags[i]] : 0;
+            }
+            return result;
+        }
+        return direct(x, off, n, c, lags);
+    }
+
+    /**
+     * @return Estimated multiply-adds of direct summation at the lags.
+     */
+    static double directCost(int n, int[] lags) {
+        double cost = 0;
+        for (int k : lags) {
+            cost += Math.max(0, n - k);
+        }
+        return cost;
+    }
+
+    /**
+     * @return Estimated cost of the FFT for lags up to maxLag, in multiply-adds.
+     */
+    static double fftCost(int n, int maxLag) {
+        double l = fftSize(n, maxLag);
+        return FFT_COST * l * (Math.log(l) / Math.log(2));
+    }
+
+    /**
+     * @return Smallest power of two padding that avoids wrap-around up to maxLag.
+     */
+    static int fftSize(int n, int maxLag) {
+        return Math.max(2, Equations.nextPowerOfTwo(n + Math.min(maxLag, n - 1) + 1));
+    }
+
+    /**
+     * Computes the sums of lagged products at every lag from 0 to maxLag with a real FFT.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param mean Value subtracted from the IATs.
+     * @param maxLag Largest lag, less than n.
+     * @return Sums at lags 0 to maxLag.
+     */
+    static double[] fft(double[] x, int n, double mean, int maxLag) {
+        return fft(x, 0, n, mean, maxLag);
+    }
+
+    /**
+     * Computes the sums of lagged products of a range of a vector with a real FFT.
+     *
+     * @param x Vector of IATs.
+     * @param off Index of the first IAT of the range.
+     * @param n Number of IATs in the range.
+     * @param mean Value subtracted from the IATs.
+     * @param maxLag Largest lag, less than n.
+     * @return Sums at lags 0 to maxLag.
+     */
+    static double[] fft(double[] x, int off, int n, double mean, int maxLag) {
+        double[] buf = new double[fftSize(n, maxLag)];
+        for (int i = 0; i < n; i++) {
+            buf[i] = x[off + i] - mean;
+        }
+        fftInPlace(buf, n);
+        return Arrays.copyOf(buf, maxLag + 1);
+    }
+
+    /**
+     * Replaces n mean-adjusted IATs by their sums of lagged products, in place.
+     * Entries from n onwards are overwritten with zero padding, and the sums
+     * are exact at lags up to buf.length - n - 1.
+     *
+     * @param buf Buffer whose length is a power of two, holding the IATs first.
+     * @param n Number of IATs in the buffer.
+     */
+    static void fftInPlace(double[] buf, int n) {
+        int l = buf.length;
+        Arrays.fill(buf, n, l, 0);
+        // zero-padded data transformed in place to its power spectrum
+        RealFFT fft = RealFFT.forSize(l);
+        fft.forward(buf);
+        buf[0] *= buf[0];
+        buf[1] *= buf[1];
+        for (int i = 2; i < l; i += 2) {
+            buf[i] = buf[i] * buf[i] + buf[i+1] * buf[i+1];
+            buf[i+1] = 0;
+        }
+        fft.inverse(buf);
+    }
+
+    /**
+     * Computes the sums of lagged products at the given lags by direct
+     * summation, in parallel across lags.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param mean Value subtracted from the IATs.
+     * @param lags Lags of the sums.
+     * @return Sum at each lag, 0 for lags of n or more.
+     */
+    static double[] direct(double[] x, int n, double mean, int[] lags) {
+        return direct(x, 0, n, mean, lags);
+    }
+
+    /**
+     * Computes the sums of lagged products of a range of a vector by direct summation.
+     *
+     * @param x Vector of IATs.
+     * @param off Index of the first IAT of the range.
+     * @param n Number of IATs in the range.
+     * @param mean Value subtracted from the IATs.
+     * @param lags Lags of the sums.
+     * @return Sum at each lag, 0 for lags of n or more.
+     */
+    static double[] direct(double[] x, int off, int n, double mean, int[] lags) {
+        double[] result = new double[lags.length];
+        Parallel.POOL.invoke(new LagTask(x, off, n, mean, lags, result, 0, lags.length));
+        return result;
+    }
+
+    /**
+     * Sums the lagged products of a range of lags, splitting the range in two
+     * while it holds enough work.
+     */
+    private static class LagTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final double[] x;
+        final int off;
+        final int n;
+        final double mean;
+        final int[] lags;
+        final double[] result;
+        final int from;
+        final int to;
+
+        LagTask(double[] x, int off, int n, double mean, int[] lags, double[] result, int from, int to) {
+            this.x = x;
+            this.off = off;
+            this.n = n;
+            this.mean = mean;
+            this.lags = lags;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (long) (to - from) * n > MIN_WORK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LagTask(x, off, n, mean, lags, result, from, mid),
+                        new LagTask(x, off, n, mean, lags, result, mid, to));
+                return;
+            }
+            for (int b = 0; b < n; b += BLOCK) {
+                int blockEnd = Math.min(n, b + BLOCK);
+                for (int i = from; i < to; i++) {
+                    int k = lags[i];
+                    int end = Math.min(blockEnd, n - k);
+                    double acc = 0;
+                    for (int t = off + b; t < off + end; t++) {
+                        acc += (x[t] - mean) * (x[t + k] - mean);
+                    }
+                    result[i] += acc;
+                }
+            }
+        }
+    }
+}
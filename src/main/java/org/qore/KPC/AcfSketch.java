@@ -0,0 +1,234 @@
+package org.qore.KPC;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Approximate autocorrelation of a stream of IATs in memory that does not grow
+ * with its length. Level 0 keeps the exact sums of lagged products for lags
+ * 1 to R over a ring of the last R IATs. Level l does the same for the series
+ * of means of consecutive blocks of m = 2^l IATs, so it covers lags up to
+ * R * 2^l with O(R log n) memory in all and amortised O(R) work per IAT.
+ *
+ * Lags up to R are exact, as in Trace. The lag k of a higher level is answered
+ * from the smallest level reaching it, interpolating between block lags.
+ * For a stationary trace, the covariance of block means at block lag d is the
+ * covariance at lag d * m averaged over lags d * m - m + 1 to d * m + m - 1
+ * with triangular weights. The estimate at lag k therefore differs from the
+ * AC of Trace by at most the variation of the AC within smoothingWidth(k) < 2k / R
+ * lags of k, plus the sampling noise of the block means.
+ */
+public class AcfSketch {
+    static final int DEFAULT_LAGS_PER_LEVEL = 64;
+
+    /**
+     * Number of block lags R kept at each level.
+     */
+    final int lagsPerLevel;
+    final List<Level> levels = new ArrayList<>();
+    // IATs are shifted by the first IAT in all sums to limit cancellation
+    private double shift;
+
+    /**
+     * Creates an empty sketch keeping 64 lags per level, smoothing the AC
+     * over less than 1/32 of the lag.
+     */
+    public AcfSketch() {
+        this(DEFAULT_LAGS_PER_LEVEL);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param lagsPerLevel Number of block lags kept at each level, the exact lags of level 0.
+     */
+    public AcfSketch(int lagsPerLevel) {
+        if (lagsPerLevel < 2) {
+            throw new IllegalArgumentException("At least 2 lags per level are needed");
+        }
+        this.lagsPerLevel = lagsPerLevel;
+    }
+
+    /**
+     * Consumes one IAT.
+     *
+     * @param x IAT.
+     */
+    public void add(double x) {
+        if (levels.isEmpty()) {
+            shift = x;
+            levels.add(new Level(lagsPerLevel));
+        }
+        double y = x - shift;
+        // each level passes the mean of every two values on to the next one
+        for (int l = 0; levels.get(l).add(y); l++) {
+            y = levels.get(l).pending;
+            if (l + 1 == levels.size()) {
+                levels.add(new Level(lagsPerLevel));
+            }
+        }
+    }
+
+    /**
+     * Consumes all the IATs of a vector.
+     *
+     * @param data Vector of IATs.
+     */
+    public void add(double[] data) {
+        for (double x : data) {
+            add(x);
+        }
+    }
+
+    /**
+     * Consumes all the IATs of a storage, reading them in blocks.
+     *
+     * @param data Storage of the IATs.
+     */
+    public void add(TraceStorage data) {
+        double[] buf = new double[BlockedStatistics.BLOCK];
+        for (long b = 0; b < data.size(); b += buf.length) {
+            int len = (int) Math.min(buf.length, data.size() - b);
+            data.get(b, buf, 0, len);
+            for (int i = 0; i < len; i++) {
+                add(buf[i]);
+            }
+        }
+    }
+
+    /**
+     * @return Number of IATs consumed so far.
+     */
+    public long count() {
+        return levels.isEmpty() ? 0 : levels.get(0).count;
+    }
+
+    /**
+     * Gets the approximate AC at the lags desired, on the scale of Trace:
+     * sum_{t<n-k} (x_t - m)(x_{t+k} - m) / sum_t (x_t - m)^2.
+     *
+     * @param lags Lags of the AC values desired, non-negative.
+     * @return AC at each lag, 0 for lags beyond those covered by the IATs consumed.
+     */
+    public double[] acAtLags(int[] lags) {
+        if (levels.isEmpty()) {
+            throw new IllegalStateException("No IATs consumed");
+        }
+        Level base = levels.get(0);
+        long n = base.count;
+        double mean = base.sum / n;
+        double var0 = base.sumSq - n * mean * mean;
+        double[] result = new double[lags.length];
+        for (int i = 0; i < lags.length; i++) {
+            int k = lags[i];
+            if (k == 0) {
+                result[i] = 1;
+                continue;
+            }
+            int l = levelOf(k);
+            if (l >= levels.size()) {
+                continue;
+            }
+            Level level = levels.get(l);
+            long m = 1L << l;
+            int d0 = (int) (k / m);
+            double frac = (double) (k - d0 * m) / m;
+            if (level.count <= d0 + (frac > 0 ? 1 : 0)) {
+                continue;
+            }
+            double c = level.covariance(d0, mean);
+            if (frac > 0) {
+                c += frac * (level.covariance(d0 + 1, mean) - c);
+            }
+            // scaled to the sum over n - k lagged pairs of IATs
+            result[i] = c * (n - k) / var0;
+        }
+        return result;
+    }
+
+    /**
+     * @param k Lag, positive.
+     * @return Half-width, in lags, of the window the AC at lag k is averaged over, 0 if exact.
+     */
+    public long smoothingWidth(int k) {
+        return (1L << levelOf(k)) - 1;
+    }
+
+    /**
+     * @return Smallest level whose block lags bracket lag k.
+     */
+    private int levelOf(int k) {
+        int l = 0;
+        while (true) {
+            long m = 1L << l;
+            long d0 = k / m;
+            if (d0 < lagsPerLevel || (d0 == lagsPerLevel && d0 * m == k)) {
+                return l;
+            }
+            l++;
+        }
+    }
+
+    /**
+     * Sums of lagged products of one aggregation level, for block lags 1 to R.
+     */
+    private static final class Level {
+        final double[] ring;
+        long count;
+        double sum;
+        double sumSq;
+        // per block lag d at index d - 1: sum of products, sums of the earlier and later factors
+        final double[] products;
+        final double[] earlier;
+        final double[] later;
+        // first of the two values averaged into the next level, and its mean with the second
+        double pending;
+        boolean half;
+
+        Level(int lags) {
+            ring = new double[lags];
+            products = new double[lags];
+            earlier = new double[lags];
+            later = new double[lags];
+        }
+
+        /**
+         * Adds a shifted value.
+         *
+         * @return If a value for the next level is ready in pending.
+         */
+        boolean add(double y) {
+            int r = ring.length;
+            int maxD = (int) Math.min(r, count);
+            int pos = (int) (count % r);
+            for (int d = 1; d <= maxD; d++) {
+                int j = pos - d;
+                double yd = ring[j < 0 ? j + r : j];
+                products[d - 1] += yd * y;
+                earlier[d - 1] += yd;
+                later[d - 1] += y;
+            }
+            ring[pos] = y;
+            count++;
+            sum += y;
+            sumSq += y * y;
+            if (half) {
+                pending = 0.5 * (pending + y);
+                half = false;
+                return true;
+            }
+            pending = y;
+            half = true;
+            return false;
+        }
+
+        /**
+         * @return Covariance of the values d apart, about the shifted mean.
+         */
+        double covariance(int d, double mean) {
+            long pairs = count - d;
+            double s = products[d - 1] - mean * (earlier[d - 1] + later[d - 1]) + pairs * mean * mean;
+            return s / pairs;
+        }
+    }
+}
@@ -69,8 +69,8 @@ public class BCObjFunc implements Calcfc {
         }
         double denom = Math.pow(6, J-1);
         temp /= denom;
-        con[index++] = 2 - temp / t.moments[2];
-        con[index++] = temp / t.moments[2] - 0.5;
+        con[index++] = 2 - temp / t.moments()[2];
+        con[index++] = temp / t.moments()[2] - 0.5;
 
         for (int j = 1; j < J; j++) {
             double t = e2j[j] - 2*e1j[j]*e1j[j];
@@ -103,15 +103,15 @@ public class BCObjFunc implements Calcfc {
             Constants.LOGGER.warning("E1: " + Arrays.toString(e1) + "; E3: " + Arrays.toString(e3));
             return Double.MAX_VALUE;
         }
-        composedMAP.scale(t.moments[0], allowSM);
-        DMatrixRMaj trace_bc = new DMatrixRMaj(t.bc);
+        composedMAP.scale(t.moments()[0], allowSM);
+        DMatrixRMaj trace_bc = new DMatrixRMaj(t.getBc());
         double nbc = NormOps_DDRM.normP2(trace_bc);
-        DMatrixRMaj map_bc = new DMatrixRMaj(t.bc.length, 1);
-        for (int i = 0; i < t.bc.length; i++) {
+        DMatrixRMaj map_bc = new DMatrixRMaj(t.getBc().length, 1);
+        for (int i = 0; i < t.getBc().length; i++) {
             double joint = composedMAP.getJoint(t.bcLags[i], new int[]{1,1,1});
             map_bc.set(i,0, joint);
         }
-        DMatrixRMaj diff = new DMatrixRMaj(t.bc.length);
+        DMatrixRMaj diff = new DMatrixRMaj(t.getBc().length);
         CommonOps_DDRM.subtract(trace_bc, map_bc, diff);
         return NormOps_DDRM.normP2(diff) / nbc;
     }
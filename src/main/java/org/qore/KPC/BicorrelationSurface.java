@@ -0,0 +1,201 @@
+package org.qore.KPC;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dense grid of the bicorrelations E[x_t x_{t+i} x_{t+i+j}] of a trace for
+ * i = 1 .. maxI and j = 1 .. maxJ, normalised as in Trace.bc. Each row i is
+ * the cross-correlation of the products z_t = x_t x_{t+i} with the trace,
+ * computed with a real FFT, so the grid costs two FFTs of the padded trace
+ * per row, rather than a pass over the trace per lag pair. Rows are computed
+ * in parallel on the shared pool, and the spectrum of the trace is shared by
+ * all of them. Small grids, for which direct summation is cheaper, are summed
+ * directly. Any subset of the grid can then serve as the BC lags of a Trace
+ * without reading the data again.
+ */
+public class BicorrelationSurface {
+    final int maxI;
+    final int maxJ;
+    /**
+     * Bicorrelation at (i, j), at index (i - 1) * maxJ + j - 1.
+     */
+    final double[] values;
+
+    private BicorrelationSurface(int maxI, int maxJ) {
+        this.maxI = maxI;
+        this.maxJ = maxJ;
+        values = new double[maxI * maxJ];
+    }
+
+    /**
+     * Computes the bicorrelation surface of a trace.
+     *
+     * @param data Vector of IATs.
+     * @param maxI Largest lag i between the first two factors.
+     * @param maxJ Largest lag j between the last two factors.
+     * @return Bicorrelation surface.
+     */
+    public static BicorrelationSurface of(double[] data, int maxI, int maxJ) {
+        return of(data, data.length, maxI, maxJ);
+    }
+
+    /**
+     * Computes the bicorrelation surface of the first n IATs of a vector.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param maxI Largest lag i between the first two factors.
+     * @param maxJ Largest lag j between the last two factors.
+     * @return Bicorrelation surface.
+     */
+    static BicorrelationSurface of(double[] x, int n, int maxI, int maxJ) {
+        if (maxI < 1 || maxJ < 1 || maxI + maxJ >= n) {
+            throw new IllegalArgumentException(String.format(
+                    "Lags must be positive with maxI + maxJ less than %d", n));
+        }
+        BicorrelationSurface s = new BicorrelationSurface(maxI, maxJ);
+        int l = Equations.nextPowerOfTwo(n + maxI + maxJ);
+        double fftCost = AcfEngine.fftCost(n, maxI + maxJ);
+        if ((double) maxJ * n < 2 * fftCost) {
+            s.direct(x, n);
+            return s;
+        }
+        // spectrum of the zero-padded trace, shared by the rows
+        double[] spectrum = new double[l];
+        System.arraycopy(x, 0, spectrum, 0, n);
+        RealFFT.forSize(l).forward(spectrum);
+        int grain = Math.max(1, maxI / (4 * Parallel.POOL.getParallelism()));
+        Parallel.POOL.invoke(new RowTask(s, x, n, spectrum, grain, 1, maxI + 1));
+        return s;
+    }
+
+    /**
+     * Sums every lag pair of the grid directly.
+     */
+    private void direct(double[] x, int n) {
+        int[][] trios = new int[values.length][];
+        for (int i = 1; i <= maxI; i++) {
+            for (int j = 1; j <= maxJ; j++) {
+                trios[index(i, j)] = new int[]{1, i, j};
+            }
+        }
+        double[] b = BlockedStatistics.bicorrelation(x, n, trios);
+        System.arraycopy(b, 0, values, 0, b.length);
+    }
+
+    /**
+     * Computes row i of the grid in a buffer of the padded length.
+     */
+    private void row(double[] x, int n, double[] spectrum, double[] buf, int i) {
+        int l = buf.length;
+        for (int t = 0; t < n - i; t++) {
+            buf[t] = x[t] * x[t + i];
+        }
+        Arrays.fill(buf, n - i, l, 0);
+        RealFFT fft = RealFFT.forSize(l);
+        fft.forward(buf);
+        // conj(Z) X, whose inverse is sum_t z_t x_{t+s}
+        buf[0] *= spectrum[0];
+        buf[1] *= spectrum[1];
+        for (int k = 2; k < l; k += 2) {
+            double zr = buf[k];
+            double zi = buf[k + 1];
+            double xr = spectrum[k];
+            double xi = spectrum[k + 1];
+            buf[k] = zr * xr + zi * xi;
+            buf[k + 1] = zr * xi - zi * xr;
+        }
+        fft.inverse(buf);
+        for (int j = 1; j <= maxJ; j++) {
+            values[index(i, j)] = buf[i + j] / (n - (i + j));
+        }
+    }
+
+    private int index(int i, int j) {
+        return (i - 1) * maxJ + j - 1;
+    }
+
+    /**
+     * @param i Lag between the first two factors, 1 to maxI.
+     * @param j Lag between the last two factors, 1 to maxJ.
+     * @return Bicorrelation E[x_t x_{t+i} x_{t+i+j}].
+     */
+    public double get(int i, int j) {
+        if (i < 1 || i > maxI || j < 1 || j > maxJ) {
+            throw new IndexOutOfBoundsException(String.format("Lags (%d, %d) outside the surface", i, j));
+        }
+        return values[index(i, j)];
+    }
+
+    /**
+     * Gets the bicorrelations of lag trios of the form of Trace.bcLags.
+     *
+     * @param bcLags Lag trios {1, i, j} within the surface.
+     * @return Bicorrelation of each trio.
+     */
+    public double[] atLags(int[][] bcLags) {
+        double[] result = new double[bcLags.length];
+        for (int r = 0; r < bcLags.length; r++) {
+            if (bcLags[r][0] != 1) {
+                throw new IllegalArgumentException("Only lag trios starting with 1 are held by the surface");
+            }
+            result[r] = get(bcLags[r][1], bcLags[r][2]);
+        }
+        return result;
+    }
+
+    /**
+     * @return Largest lag i between the first two factors.
+     */
+    public int getMaxI() {
+        return maxI;
+    }
+
+    /**
+     * @return Largest lag j between the last two factors.
+     */
+    public int getMaxJ() {
+        return maxJ;
+    }
+
+    /**
+     * Computes a range of rows, splitting it in two down to the grain, with
+     * one buffer per range.
+     */
+    private static class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final BicorrelationSurface surface;
+        final double[] x;
+        final int n;
+        final double[] spectrum;
+        final int grain;
+        final int from;
+        final int to;
+
+        RowTask(BicorrelationSurface surface, double[] x, int n, double[] spectrum, int grain, int from, int to) {
+            this.surface = surface;
+            this.x = x;
+            this.n = n;
+            this.spectrum = spectrum;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RowTask(surface, x, n, spectrum, grain, from, mid),
+                        new RowTask(surface, x, n, spectrum, grain, mid, to));
+                return;
+            }
+            double[] buf = new double[spectrum.length];
+            for (int i = from; i < to; i++) {
+                surface.row(x, n, spectrum, buf, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.qore.KPC;
+
+/**
+ * Computes the characteristics of a Trace over a TraceStorage, reading the
+ * IATs in blocks so that the whole trace never needs to be in the heap.
+ * Blocks of the index range are processed in parallel, and their partial
+ * sums merged. Moments can also be computed over an array in the same way.
+ */
+final class BlockedStatistics {
+    static final int BLOCK = 1 << 14;
+
+    private BlockedStatistics() {}
+
+    /**
+     * Computes the raw moments in a single pass, by incremental multiplication.
+     *
+     * @param data IATs of the trace.
+     * @param maxMoments Number of moments.
+     * @return Moments E[X^1] to E[X^maxMoments].
+     */
+    static double[] moments(final TraceStorage data, final int maxMoments) {
+        final long n = data.size();
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[maxMoments];
+                double[] x = new double[BLOCK];
+                for (long b = from; b < to; b += BLOCK) {
+                    int len = (int) Math.min(BLOCK, to - b);
+                    data.get(b, x, 0, len);
+                    for (int i = 0; i < len; i++) {
+                        double p = x[i];
+                        for (int k = 0; k < maxMoments; k++) {
+                            s[k] += p;
+                            p *= x[i];
+                        }
+                    }
+                }
+                return s;
+            }
+        }, n, maxMoments);
+        for (int k = 0; k < maxMoments; k++) {
+            sums[k] /= n;
+        }
+        return sums;
+    }
+
+    /**
+     * Computes the raw moments of a vector in a single pass, by incremental
+     * multiplication, splitting the vector across the pool.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param maxMoments Number of moments.
+     * @return Moments E[X^1] to E[X^maxMoments].
+     */
+    static double[] moments(double[] x, int n, int maxMoments) {
+        return moments(x, 0, n, maxMoments);
+    }
+
+    /**
+     * Computes the raw moments of a range of a vector.
+     *
+     * @param x Vector of IATs.
+     * @param off Index of the first IAT of the range.
+     * @param n Number of IATs in the range.
+     * @param maxMoments Number of moments.
+     * @return Moments E[X^1] to E[X^maxMoments] over the range.
+     */
+    static double[] moments(final double[] x, final int off, int n, final int maxMoments) {
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[maxMoments];
+                for (int i = off + (int) from; i < off + to; i++) {
+                    double p = x[i];
+                    for (int k = 0; k < maxMoments; k++) {
+                        s[k] += p;
+                        p *= x[i];
+                    }
+                }
+                return s;
+            }
+        }, n, maxMoments);
+        for (int k = 0; k < maxMoments; k++) {
+            sums[k] /= n;
+        }
+        return sums;
+    }
+
+    /**
+     * Computes the autocorrelations at the given lags by direct blocked sums,
+     * normalised as the FFT estimator of Trace.generateAC:
+     * sum_{t<n-k} (x_t - m)(x_{t+k} - m) / sum_t (x_t - m)^2.
+     *
+     * @param data IATs of the trace.
+     * @param mean Mean of the IATs.
+     * @param lags Lags of the autocorrelations.
+     * @return Autocorrelation at each lag.
+     */
+    static double[] autocorrelation(final TraceStorage data, final double mean, final int[] lags) {
+        final long n = data.size();
+        final int nLags = lags.length;
+        // sums[nLags] holds the lag 0 autocovariance
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[nLags + 1];
+                double[] x = new double[BLOCK];
+                double[] y = new double[BLOCK];
+                for (long b = from; b < to; b += BLOCK) {
+                    int len = (int) Math.min(BLOCK, to - b);
+                    data.get(b, x, 0, len);
+                    for (int i = 0; i < len; i++) {
+                        x[i] -= mean;
+                        s[nLags] += x[i] * x[i];
+                    }
+                    for (int l = 0; l < nLags; l++) {
+                        long k = lags[l];
+                        int valid = (int) Math.max(0, Math.min(len, n - k - b));
+                        if (valid == 0) {
+                            continue;
+                        }
+                        data.get(b + k, y, 0, valid);
+                        double acc = 0;
+                        for (int i = 0; i < valid; i++) {
+                            acc += x[i] * (y[i] - mean);
+                        }
+                        s[l] += acc;
+                    }
+                }
+                return s;
+            }
+        }, n, nLags + 1);
+        double[] ac = new double[nLags];
+        for (int l = 0; l < nLags; l++) {
+            ac[l] = sums[l] / sums[nLags];
+        }
+        return ac;
+    }
+
+    /**
+     * Computes the bicorrelations E[x_t x_{t+i} x_{t+i+j}] for the lag trios
+     * {1, i, j} of Trace.bcLags, by direct blocked sums.
+     *
+     * @param data IATs of the trace.
+     * @param bcLags Bicorrelation lag trios.
+     * @return Bicorrelation of each trio.
+     */
+    static double[] bicorrelation(final TraceStorage data, int[][] bcLags) {
+        final long n = data.size();
+        final int nTrios = bcLags.length;
+        final long[] first = new long[nTrios];
+        final long[] second = new long[nTrios];
+        for (int r = 0; r < nTrios; r++) {
+            first[r] = bcLags[r][1];
+            second[r] = (long) bcLags[r][1] + bcLags[r][2];
+        }
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[nTrios];
+                double[] x = new double[BLOCK];
+                double[] y = new double[BLOCK];
+                double[] z = new double[BLOCK];
+                for (long b = from; b < to; b += BLOCK) {
+                    int len = (int) Math.min(BLOCK, to - b);
+                    data.get(b, x, 0, len);
+                    for (int r = 0; r < nTrios; r++) {
+                        int valid = (int) Math.max(0, Math.min(len, n - second[r] - b));
+                        if (valid == 0) {
+                            continue;
+                        }
+                        data.get(b + first[r], y, 0, valid);
+                        data.get(b + second[r], z, 0, valid);
+                        double acc = 0;
+                        for (int i = 0; i < valid; i++) {
+                            acc += x[i] * y[i] * z[i];
+                        }
+                        s[r] += acc;
+                    }
+                }
+                return s;
+            }
+        }, n, nTrios);
+        double[] bc = new double[nTrios];
+        for (int r = 0; r < nTrios; r++) {
+            bc[r] = sums[r] / (n - second[r]);
+        }
+        return bc;
+    }
+
+    /**
+     * Computes the bicorrelations of a vector for the lag trios of
+     * Trace.bcLags, reading the shifted values directly from the vector.
+     * Each block of the index range sums the triple products of every trio
+     * in one loop, and blocks are processed in parallel.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param bcLags Bicorrelation lag trios.
+     * @return Bicorrelation of each trio.
+     */
+    static double[] bicorrelation(double[] x, int n, int[][] bcLags) {
+        double[] sums = bicorrelationSums(x, n, bcLags);
+        for (int r = 0; r < bcLags.length; r++) {
+            sums[r] /= Math.max(0, n - (bcLags[r][0] - 1 + bcLags[r][1] + bcLags[r][2]));
+        }
+        return sums;
+    }
+
+    /**
+     * Computes the sums of the triple products of a vector for the lag trios
+     * of Trace.bcLags, as in bicorrelation but without dividing by their count.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param bcLags Bicorrelation lag trios.
+     * @return Sum of the triple products of each trio.
+     */
+    static double[] bicorrelationSums(final double[] x, int n, int[][] bcLags) {
+        final int nTrios = bcLags.length;
+        // offsets of the three factors, from the cumulative sums of the trio minus one
+        final int[] o0 = new int[nTrios];
+        final int[] o1 = new int[nTrios];
+        final int[] o2 = new int[nTrios];
+        final int[] count = new int[nTrios];
+        for (int r = 0; r < nTrios; r++) {
+            o0[r] = bcLags[r][0] - 1;
+            o1[r] = o0[r] + bcLags[r][1];
+            o2[r] = o1[r] + bcLags[r][2];
+            count[r] = Math.max(0, n - o2[r]);
+        }
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[nTrios];
+                for (int b = (int) from; b < to; b += BLOCK) {
+                    int blockEnd = (int) Math.min(to, b + BLOCK);
+                    for (int r = 0; r < nTrios; r++) {
+                        int end = Math.min(blockEnd, count[r]);
+                        int a = o0[r];
+                        int c = o1[r];
+                        int d = o2[r];
+                        double acc = 0;
+                        for (int t = b; t < end; t++) {
+                            acc += x[t + a] * x[t + c] * x[t + d];
+                        }
+                        s[r] += acc;
+                    }
+                }
+                return s;
+            }
+        }, n, nTrios);
+        return sums;
+    }
+}
@@ -0,0 +1,204 @@
+package org.qore.KPC;
+
+/**
+ * Mean, variance and index of dispersion for counts (IDC) of the arrivals of
+ * a trace, counted in consecutive windows of each of a set of lengths.
+ * Arrival times are accumulated from the IATs once; the counts of every
+ * window length are then taken from them, either by binary search of the
+ * window boundaries or, when windows are so short that searching for every
+ * boundary costs more than a pass over the arrivals, by a sweep over the
+ * arrivals, in parallel on the shared pool.
+ * Window lengths given as AC lags times the mean IAT line the IDC up with
+ * the AC of the Trace, such a window holding lag arrivals on average.
+ */
+public class CountDispersion {
+    /**
+     * Window lengths, in the time unit of the IATs.
+     */
+    final double[] windows;
+    final double[] means;
+    final double[] variances;
+
+    private CountDispersion(double[] windows) {
+        this.windows = windows;
+        means = new double[windows.length];
+        variances = new double[windows.length];
+    }
+
+    /**
+     * Computes the count statistics at the given window lengths.
+     *
+     * @param data IATs of the trace, the first arrival being at data[0].
+     * @param windows Window lengths, positive, in the time unit of the IATs.
+     * @return Count statistics at each window length.
+     */
+    public static CountDispersion of(double[] data, double[] windows) {
+        final int n = data.length;
+        final double[] arrivals = new double[n];
+        double time = 0;
+        for (int k = 0; k < n; k++) {
+            time += data[k];
+            arrivals[k] = time;
+        }
+        CountDispersion d = new CountDispersion(windows.clone());
+        double logN = Math.log(Math.max(2, n)) / Math.log(2);
+        for (int w = 0; w < windows.length; w++) {
+            double width = windows[w];
+            if (!(width > 0)) {
+                throw new IllegalArgumentException("Window lengths must be positive");
+            }
+            long bins = (long) Math.floor(time / width);
+            if (bins < 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Window of %g holds the whole trace, of length %g", width, time));
+            }
+            double[] sums = bins * logN < n ? searchCounts(arrivals, width, bins) : sweepCounts(arrivals, width, bins);
+            double mean = sums[0] / bins;
+            d.means[w] = mean;
+            d.variances[w] = sums[1] / bins - mean * mean;
+        }
+        return d;
+    }
+
+    /**
+     * Computes the count statistics at windows of lag times the mean IAT.
+     *
+     * @param data IATs of the trace.
+     * @param lags Lags, e.g. Trace.getAcLags().
+     * @return Count statistics at each lag.
+     */
+    public static CountDispersion atLags(double[] data, int[] lags) {
+        double mean = BlockedStatistics.moments(data, data.length, 1)[0];
+        double[] windows = new double[lags.length];
+        for (int i = 0; i < lags.length; i++) {
+            windows[i] = lags[i] * mean;
+        }
+        return of(data, windows);
+    }
+
+    /**
+     * Computes the count statistics at log-spaced window lengths.
+     *
+     * @param data IATs of the trace.
+     * @param minWindow Shortest window length.
+     * @param maxWindow Longest window length.
+     * @param nWindows Number of window lengths.
+     * @return Count statistics at each window length.
+     */
+    public static CountDispersion logSpaced(double[] data, double minWindow, double maxWindow, int nWindows) {
+        double[] windows = new double[nWindows];
+        double ratio = nWindows > 1 ? Math.pow(maxWindow / minWindow, 1.0 / (nWindows - 1)) : 1;
+        for (int w = 0; w < nWindows; w++) {
+            windows[w] = minWindow * Math.pow(ratio, w);
+        }
+        return of(data, windows);
+    }
+
+    /**
+     * Sums the counts and squared counts of the windows, finding the
+     * arrivals before each window boundary by binary search.
+     */
+    private static double[] searchCounts(final double[] arrivals, final double width, long bins) {
+        return Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[2];
+                int before = countBefore(arrivals, from * width);
+                for (long b = from; b < to; b++) {
+                    int next = countBefore(arrivals, (b + 1) * width);
+                    double c = next - before;
+                    s[0] += c;
+                    s[1] += c * c;
+                    before = next;
+                }
+                return s;
+            }
+        }, bins, 2);
+    }
+
+    /**
+     * Sums the counts and squared counts of the windows, by runs of arrivals
+     * in the same window. Each range of arrivals skips a run started in the
+     * previous range and finishes the run it starts last.
+     */
+    private static double[] sweepCounts(final double[] arrivals, final double width, final long bins) {
+        final int n = arrivals.length;
+        // empty windows contribute nothing to either sum
+        return Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[2];
+                int k = (int) from;
+                if (k > 0) {
+                    long previous = (long) Math.floor(arrivals[k - 1] / width);
+                    while (k < n && (long) Math.floor(arrivals[k] / width) == previous) {
+                        k++;
+                    }
+                }
+                while (k < to) {
+                    long bin = (long) Math.floor(arrivals[k] / width);
+                    if (bin >= bins) {
+                        break;
+                    }
+                    int start = k;
+                    while (k < n && (long) Math.floor(arrivals[k] / width) == bin) {
+                        k++;
+                    }
+                    double c = k - start;
+                    s[0] += c;
+                    s[1] += c * c;
+                }
+                return s;
+            }
+        }, n, 2);
+    }
+
+    /**
+     * @return Number of arrivals strictly before time.
+     */
+    private static int countBefore(double[] arrivals, double time) {
+        int lo = 0;
+        int hi = arrivals.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arrivals[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return Window lengths, in the time unit of the IATs.
+     */
+    public double[] getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return Mean count of each window length.
+     */
+    public double[] getMeans() {
+        return means;
+    }
+
+    /**
+     * @return Variance of the count of each window length.
+     */
+    public double[] getVariances() {
+        return variances;
+    }
+
+    /**
+     * @return IDC of each window length, Var(N)/E[N].
+     */
+    public double[] getIDC() {
+        double[] idc = new double[windows.length];
+        for (int w = 0; w < windows.length; w++) {
+            idc[w] = variances[w] / means[w];
+        }
+        return idc;
+    }
+}
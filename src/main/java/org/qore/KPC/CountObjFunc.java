@@ -0,0 +1,107 @@
+package org.qore.KPC;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+
+import java.util.Arrays;
+
+/**
+ * Count fit objective function usable by Apache Commons multivariate
+ * optimizer, representing the closeness of fit between the counts of a
+ * CountTrace and those of a MAP generated to fit it. Takes the same SCV and
+ * Gamma of the composing MAPs as ACObjFunc, and compares the IDC and count
+ * autocorrelation of the composed MAP at the bin width with the counts'.
+ */
+public class CountObjFunc implements MultivariateFunction {
+    CountTrace c;
+    int J;
+    double idc;
+    double[] acorr;
+    double acNorm;
+
+    /**
+     * Generates new instance of the value function to be used by optimizer.
+     *
+     * @param c Count characteristics the MAP aims to fit.
+     * @param J Number of composing MAPs.
+     */
+    public CountObjFunc(CountTrace c, int J) {
+        this.c = c;
+        this.J = J;
+        idc = c.getIDC();
+        acorr = c.getAutocorrelation();
+        for (int k = 1; k < acorr.length; k++) {
+            acNorm += acorr[k] * acorr[k];
+        }
+        acNorm = Math.sqrt(acNorm);
+    }
+
+    /**
+     * Computes the objective value of the data.
+     *
+     * @param x input data to be optimized with length 2*J,
+     *          where first J instances are scv, last J are gamma.
+     *
+     * @return the closeness of the fit for a MAP generated
+     * with the given parameters, Double.MAX_VALUE if none can be composed.
+     */
+    @Override
+    public double value(double[] x) {
+        double[] scv = Arrays.copyOfRange(x, 0, J);
+        double[] gamma = Arrays.copyOfRange(x, J, x.length);
+        MAP map;
+        try {
+            map = compose(scv, gamma, J);
+        } catch (InfeasibleMAPException e) {
+            return Double.MAX_VALUE;
+        }
+        double value = value(map);
+        return Double.isNaN(value) ? Double.MAX_VALUE : value;
+    }
+
+    /**
+     * Computes the closeness of fit of a MAP of any mean to the counts.
+     *
+     * @param map MAP to be compared to the counts.
+     * @return the relative IDC error squared plus the L1 count autocorrelation
+     * error relative to the L2 norm of the count autocorrelation.
+     */
+    double value(MAP map) {
+        double[] cov = counts(map);
+        double mapIdc = cov[0] / c.getMean();
+        double acDifference = 0;
+        for (int k = 1; k < acorr.length; k++) {
+            acDifference += Math.abs(acorr[k] - cov[k] / cov[0]);
+        }
+        return acDifference / acNorm + (mapIdc - idc) * (mapIdc - idc) / (idc * idc);
+    }
+
+    /**
+     * Gets the count variance and covariances of a MAP over windows holding
+     * as many arrivals on average as the bins of the counts.
+     *
+     * @param map MAP of any mean.
+     * @return Count variance at index 0, covariance at bin lag k at index k.
+     */
+    double[] counts(MAP map) {
+        return map.getCountCovariances(c.getMean() * map.getMean(), c.maxLag);
+    }
+
+    /**
+     * Composes a MAP of unit mean from the SCV and Gamma of its composing
+     * MAPs, as an AC only fit does.
+     *
+     * @param scv SCV of each composing MAP.
+     * @param gamma Gamma of each composing MAP.
+     * @param J Number of composing MAPs.
+     * @return Composed MAP.
+     */
+    static MAP compose(double[] scv, double[] gamma, int J) {
+        double[] e1 = new double[J];
+        double[] e3 = new double[J];
+        for (int i = 0; i < J; i++) {
+            e1[i] = 1;
+            e3[i] = 1.51 * (1 + scv[i]) * (1 + scv[i]);
+        }
+        return KPC.composeMAP(e1, e3, scv, gamma, J, false);
+    }
+}
@@ -0,0 +1,212 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+
+/**
+ * Characteristics of a count time series, i.e. the number of arrivals in
+ * consecutive bins of equal width, computed in one pass over the bins
+ * without turning the counts back into IATs. The count mean, variance,
+ * index of dispersion for counts (IDC) and the count autocovariance at bin
+ * lags 1 to maxLag are kept; counts are added one at a time, holding only
+ * the first and the most recent maxLag counts.
+ *
+ * Counts do not determine the IAT moments or AC a Trace is fitted to, so
+ * TraceFitter fits a CountTrace with CountObjFunc, which compares the IDC
+ * and count autocorrelation of the MAP at the bin width with those of the
+ * counts. The mean IAT is exact, binWidth over the count mean, and the MAPs
+ * fitted are scaled to it. The BC is not observable from counts.
+ */
+public class CountTrace {
+    final double binWidth;
+    final int maxLag;
+    long bins;
+    // counts are shifted by the first count in the sums to limit cancellation
+    private double shift;
+    private double sum;
+    private double sumSq;
+    /**
+     * Sum of products of shifted counts at each bin lag, from lag 1.
+     */
+    private final double[] products;
+    /**
+     * First maxLag shifted counts.
+     */
+    private final double[] head;
+    /**
+     * Most recent maxLag shifted counts, by bin modulo maxLag.
+     */
+    private final double[] recent;
+
+    /**
+     * Creates empty count characteristics.
+     *
+     * @param binWidth Width of each bin, in the time unit of the IATs.
+     * @param maxLag Largest bin lag of the count autocovariance.
+     */
+    public CountTrace(double binWidth, int maxLag) {
+        if (!(binWidth > 0)) {
+            throw new IllegalArgumentException("Bin width must be positive");
+        }
+        if (maxLag < 1) {
+            throw new IllegalArgumentException("Maximum lag must be positive");
+        }
+        this.binWidth = binWidth;
+        this.maxLag = maxLag;
+        products = new double[maxLag];
+        head = new double[maxLag];
+        recent = new double[maxLag];
+    }
+
+    /**
+     * Computes the characteristics of a count time series.
+     *
+     * @param binWidth Width of each bin, in the time unit of the IATs.
+     * @param counts Number of arrivals in each bin.
+     * @param maxLag Largest bin lag of the count autocovariance.
+     * @return Characteristics of the counts.
+     */
+    public static CountTrace of(double binWidth, long[] counts, int maxLag) {
+        CountTrace c = new CountTrace(binWidth, maxLag);
+        for (long count : counts) {
+            c.add(count);
+        }
+        return c;
+    }
+
+    /**
+     * Reads a count time series with one count per value, separated as in
+     * the IAT files read by TraceReader.
+     *
+     * @param path Path to the count file.
+     * @param binWidth Width of each bin, in the time unit of the IATs.
+     * @param maxLag Largest bin lag of the count autocovariance.
+     * @return Characteristics of the counts.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public static CountTrace read(String path, double binWidth, int maxLag) throws IOException {
+        double[] values = new TraceReader().read(path);
+        CountTrace c = new CountTrace(binWidth, maxLag);
+        for (int k = 0; k < values.length; k++) {
+            long count = (long) values[k];
+            if (count != values[k]) {
+                throw new IOException(String.format("Count %s of bin %d is not an integer", values[k], k));
+            }
+            c.add(count);
+        }
+        return c;
+    }
+
+    /**
+     * Adds the count of the next bin, in O(maxLag).
+     *
+     * @param count Number of arrivals in the bin.
+     */
+    public void add(long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(String.format("Negative count %d in bin %d", count, bins));
+        }
+        if (bins == 0) {
+            shift = count;
+        }
+        double y = count - shift;
+        int lags = (int) Math.min(maxLag, bins);
+        for (int k = 1; k <= lags; k++) {
+            products[k - 1] += y * recent[(int) ((bins - k) % maxLag)];
+        }
+        if (bins < maxLag) {
+            head[(int) bins] = y;
+        }
+        recent[(int) (bins % maxLag)] = y;
+        sum += y;
+        sumSq += y * y;
+        bins++;
+    }
+
+    /**
+     * @return Number of bins added.
+     */
+    public long getBins() {
+        return bins;
+    }
+
+    /**
+     * @return Width of each bin, in the time unit of the IATs.
+     */
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * @return Mean number of arrivals per bin.
+     */
+    public double getMean() {
+        return shift + sum / bins;
+    }
+
+    /**
+     * @return Variance of the number of arrivals per bin.
+     */
+    public double getVariance() {
+        double m = sum / bins;
+        return sumSq / bins - m * m;
+    }
+
+    /**
+     * @return Index of dispersion for counts at the bin width, Var(N)/E[N].
+     */
+    public double getIDC() {
+        return getVariance() / getMean();
+    }
+
+    /**
+     * @return Mean arrival rate, per time unit.
+     */
+    public double getRate() {
+        return getMean() / binWidth;
+    }
+
+    /**
+     * @return Mean IAT implied by the counts, the bin width over the mean count.
+     */
+    public double getMeanIAT() {
+        return binWidth / getMean();
+    }
+
+    /**
+     * Gets the count autocovariance, sum_{t<n-k} (N_t - m)(N_{t+k} - m) / n,
+     * at bin lags 0 to maxLag, 0 at lags of n or more.
+     *
+     * @return Autocovariance at bin lag k at index k.
+     */
+    public double[] getAutocovariance() {
+        if (bins == 0) {
+            throw new IllegalStateException("No counts added");
+        }
+        double m = sum / bins;
+        double[] acov = new double[maxLag + 1];
+        acov[0] = getVariance();
+        double first = 0;
+        double last = 0;
+        for (int k = 1; k <= maxLag && k < bins; k++) {
+            first += head[k - 1];
+            last += recent[(int) ((bins - k) % maxLag)];
+            // sums of the earlier factors, bins 0 to n-k-1, and of the later ones, bins k to n-1
+            double earlier = sum - last;
+            double later = sum - first;
+            acov[k] = (products[k - 1] - m * (earlier + later) + (bins - k) * m * m) / bins;
+        }
+        return acov;
+    }
+
+    /**
+     * @return Count autocorrelation at bin lags 0 to maxLag.
+     */
+    public double[] getAutocorrelation() {
+        double[] acov = getAutocovariance();
+        double var = acov[0];
+        for (int k = 0; k <= maxLag; k++) {
+            acov[k] /= var;
+        }
+        return acov;
+    }
+}
@@ -0,0 +1,168 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fast streaming 64-bit content hash, in the style of xxHash64: four
+ * independent lanes consume 32-byte stripes, so the hash runs at close
+ * to memory bandwidth. Used to recognise traces that have already been
+ * characterised; it is not a cryptographic hash.
+ */
+final class Fingerprint {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long total = 0;
+    private final long[] pending = new long[4];
+    private int nPending = 0;
+
+    /**
+     * Adds one 64-bit word to the hash.
+     *
+     * @param k Word to add.
+     * @return this fingerprint.
+     */
+    Fingerprint update(long k) {
+        pending[nPending++] = k;
+        total += 8;
+        if (nPending == 4) {
+            v1 = round(v1, pending[0]);
+            v2 = round(v2, pending[1]);
+            v3 = round(v3, pending[2]);
+            v4 = round(v4, pending[3]);
+            nPending = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a vector of doubles to the hash.
+     *
+     * @param data Values to add.
+     * @return this fingerprint.
+     */
+    Fingerprint update(double[] data) {
+        for (double d : data) {
+            update(Double.doubleToLongBits(d));
+        }
+        return this;
+    }
+
+    /**
+     * Adds a String to the hash.
+     *
+     * @param s String to add.
+     * @return this fingerprint.
+     */
+    Fingerprint update(String s) {
+        update(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            update(s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Adds the remaining bytes of a buffer to the hash, consuming them.
+     * Trailing bytes that do not fill a word are padded with zeros.
+     *
+     * @param buf Bytes to add.
+     * @return this fingerprint.
+     */
+    Fingerprint update(ByteBuffer buf) {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        while (nPending != 0 && buf.remaining() >= 8) {
+            update(buf.getLong());
+        }
+        while (buf.remaining() >= 32) {
+            v1 = round(v1, buf.getLong());
+            v2 = round(v2, buf.getLong());
+            v3 = round(v3, buf.getLong());
+            v4 = round(v4, buf.getLong());
+            total += 32;
+        }
+        while (buf.remaining() >= 8) {
+            update(buf.getLong());
+        }
+        if (buf.hasRemaining()) {
+            long k = 0;
+            int shift = 0;
+            while (buf.hasRemaining()) {
+                k |= (buf.get() & 0xFFL) << shift;
+                shift += 8;
+            }
+            update(k);
+        }
+        return this;
+    }
+
+    /**
+     * Hashes the contents of a file, mapping it window by window.
+     *
+     * @param path Path to the file.
+     * @return this fingerprint.
+     * @throws IOException If can not find or read from file specified.
+     */
+    Fingerprint updateFile(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            update(size);
+            long pos = 0;
+            while (pos < size) {
+                long len = Math.min(TraceReader.WINDOW, size - pos);
+                update(channel.map(FileChannel.MapMode.READ_ONLY, pos, len));
+                pos += len;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return The 64-bit hash of everything added so far.
+     */
+    long value() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += total;
+        for (int i = 0; i < nPending; i++) {
+            h ^= round(0, pending[i]);
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long k) {
+        acc += k * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+}
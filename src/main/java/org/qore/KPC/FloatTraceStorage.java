@@ -0,0 +1,127 @@
+package org.qore.KPC;
+
+import java.util.List;
+
+/**
+ * Trace storage keeping the IATs in single precision, halving the memory
+ * of the raw samples. Values are widened to double when read, so the
+ * characteristics of the trace are still accumulated in double precision.
+ * The IATs are held in chunks of TraceBuilder.CHUNK_SIZE values, so the
+ * storage is indexed by long and can hold more than 2^31 IATs.
+ */
+public class FloatTraceStorage implements TraceStorage {
+    static final int CHUNK_SHIFT = 17;
+    static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    final float[][] chunks;
+    final long size;
+
+    /**
+     * Stores a vector of IATs rounded to single precision.
+     *
+     * @param data Vector of IATs.
+     */
+    public FloatTraceStorage(double[] data) {
+        this(data.length);
+        for (int c = 0; c < chunks.length; c++) {
+            float[] chunk = chunks[c];
+            int off = c << CHUNK_SHIFT;
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (float) data[off + i];
+            }
+        }
+    }
+
+    /**
+     * Stores a vector of single precision IATs. Vectors of up to one chunk
+     * are kept without copying.
+     *
+     * @param data Vector of IATs.
+     */
+    public FloatTraceStorage(float[] data) {
+        this.size = data.length;
+        if (data.length <= TraceBuilder.CHUNK_SIZE) {
+            chunks = new float[][] {data};
+        } else {
+            chunks = new float[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+            for (int c = 0; c < chunks.length; c++) {
+                int from = c << CHUNK_SHIFT;
+                chunks[c] = new float[Math.min(TraceBuilder.CHUNK_SIZE, data.length - from)];
+                System.arraycopy(data, from, chunks[c], 0, chunks[c].length);
+            }
+        }
+    }
+
+    /**
+     * Zero-filled storage of n IATs.
+     */
+    private FloatTraceStorage(long n) {
+        size = n;
+        chunks = new float[(int) ((n + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = new float[chunkLength(n, c)];
+        }
+    }
+
+    /**
+     * Takes over the chunks of a TraceBuilder. Chunks trimmed when builders
+     * were appended are repacked into full chunks, releasing each source
+     * chunk once it has been copied.
+     */
+    FloatTraceStorage(List<float[]> source, long size) {
+        this.size = size;
+        chunks = new float[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+        long pos = 0;
+        for (int i = 0; i < source.size(); i++) {
+            float[] src = source.get(i);
+            source.set(i, null);
+            int c = (int) (pos >>> CHUNK_SHIFT);
+            if ((pos & CHUNK_MASK) == 0 && src.length == chunkLength(size, c)) {
+                chunks[c] = src;
+                pos += src.length;
+                continue;
+            }
+            int off = 0;
+            while (off < src.length) {
+                c = (int) (pos >>> CHUNK_SHIFT);
+                if (chunks[c] == null) {
+                    chunks[c] = new float[chunkLength(size, c)];
+                }
+                int at = (int) (pos & CHUNK_MASK);
+                int n = Math.min(src.length - off, chunks[c].length - at);
+                System.arraycopy(src, off, chunks[c], at, n);
+                off += n;
+                pos += n;
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double get(long i) {
+        return chunks[(int) (i >>> CHUNK_SHIFT)][(int) (i & CHUNK_MASK)];
+    }
+
+    @Override
+    public void get(long from, double[] dst, int off, int len) {
+        while (len > 0) {
+            float[] chunk = chunks[(int) (from >>> CHUNK_SHIFT)];
+            int pos = (int) (from & CHUNK_MASK);
+            int n = Math.min(len, chunk.length - pos);
+            for (int i = 0; i < n; i++) {
+                dst[off + i] = chunk[pos + i];
+            }
+            from += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int chunkLength(long n, int c) {
+        return (int) Math.min(TraceBuilder.CHUNK_SIZE, n - ((long) c << CHUNK_SHIFT));
+    }
+}
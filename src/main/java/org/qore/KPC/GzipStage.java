@@ -0,0 +1,160 @@
+package org.qore.KPC;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pipeline stage that decompresses a gzip file on its own thread into
+ * blocks of text, so that decompression overlaps with parsing the blocks
+ * on the consuming thread. Every block ends on a delimiter, so no value
+ * is split across two blocks. Block buffers are recycled between the
+ * two threads.
+ */
+final class GzipStage implements Closeable {
+    static final int BLOCK_SIZE = 1 << 20;
+    static final int N_BLOCKS = 4;
+
+    /**
+     * Marks the end of the decompressed data in the full queue.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    final String path;
+    final boolean lines;
+    final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(N_BLOCKS + 1);
+    final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(N_BLOCKS);
+    final Thread thread;
+    volatile IOException error;
+
+    /**
+     * Starts decompressing a gzip file.
+     *
+     * @param path Path to the gzip file.
+     * @param lines If blocks must end on a line break rather than on any delimiter.
+     */
+    GzipStage(String path, boolean lines) {
+        this.path = path;
+        this.lines = lines;
+        for (int i = 0; i < N_BLOCKS; i++) {
+            free.add(new byte[BLOCK_SIZE]);
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "gzip-" + path);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Checks the gzip magic number at the start of a file.
+     *
+     * @param path Path to the file.
+     * @return if the file is gzip compressed.
+     * @throws IOException If can not find or read from file specified.
+     */
+    static boolean isGzip(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Waits for the next block of decompressed text.
+     *
+     * @return Next block, or null once all data has been consumed.
+     * @throws IOException If the file could not be decompressed.
+     */
+    ByteBuffer take() throws IOException {
+        ByteBuffer block;
+        try {
+            block = full.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing " + path, e);
+        }
+        if (block == END) {
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Hands a consumed block back to the decompressing thread.
+     *
+     * @param block Block returned by take.
+     */
+    void release(ByteBuffer block) {
+        free.offer(block.array());
+    }
+
+    /**
+     * Stops decompressing, even if not all blocks have been consumed.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    /**
+     * Body of the decompressing thread.
+     */
+    private void decode() {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(path), 1 << 16)) {
+            byte[] carry = new byte[BLOCK_SIZE];
+            int nCarry = 0;
+            boolean eof = false;
+            while (!eof) {
+                byte[] block = free.take();
+                System.arraycopy(carry, 0, block, 0, nCarry);
+                int len = nCarry;
+                while (len < block.length) {
+                    int n = in.read(block, len, block.length - len);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    len += n;
+                }
+                int end = len;
+                if (!eof) {
+                    end = lastBreak(block, len) + 1;
+                    if (end == 0) {
+                        throw new IOException("Line longer than " + BLOCK_SIZE + " bytes in " + path);
+                    }
+                }
+                nCarry = len - end;
+                System.arraycopy(block, end, carry, 0, nCarry);
+                full.put(ByteBuffer.wrap(block, 0, end));
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            full.put(END);
+        } catch (InterruptedException e) {
+            // consumer has gone away
+        }
+    }
+
+    private int lastBreak(byte[] block, int len) {
+        int i = len - 1;
+        while (i >= 0 && (lines ? block[i] != '\n' : !TextParser.isDelimiter(block[i]))) {
+            i--;
+        }
+        return i;
+    }
+}
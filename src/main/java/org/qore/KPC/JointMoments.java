@@ -0,0 +1,179 @@
+package org.qore.KPC;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Joint moments E[x_{t+o_1}^{i_1} x_{t+o_2}^{i_2} ...] of a trace for any number
+ * of lag tuples and powers, the trace-side counterpart of MAP.getJoint.
+ * Lags are given as in Trace.bcLags and MAP.getJoint, the offsets o being
+ * their cumulative sums minus one, so all-ones powers give Trace.bc.
+ * Each power above 1 that is requested is computed once for the whole trace
+ * and shared by all tuples, which are then evaluated together in a single
+ * blocked sweep split across the shared pool.
+ */
+public final class JointMoments {
+
+    private JointMoments() {}
+
+    /**
+     * Computes joint moments of a trace.
+     *
+     * @param data Vector of IATs.
+     * @param lags Lag tuples, e.g. {1, i, j}, positive and spanning less than the trace.
+     * @param powers Powers of the factors of each tuple, positive, e.g. {2, 1, 1}.
+     * @return Joint moment of each tuple, averaged over the positions where it fits in the trace.
+     * @throws IllegalArgumentException If the lags or powers of a tuple are not positive, or the lags span the trace.
+     */
+    public static double[] of(double[] data, int[][] lags, int[][] powers) {
+        return of(data, data.length, lags, powers);
+    }
+
+    /**
+     * Computes joint moments of the first n IATs of a vector.
+     *
+     * @param x Vector of IATs.
+     * @param n Number of IATs in the vector.
+     * @param lags Lag tuples.
+     * @param powers Powers of the factors of each tuple.
+     * @return Joint moment of each tuple.
+     */
+    static double[] of(final double[] x, final int n, int[][] lags, int[][] powers) {
+        if (lags.length != powers.length) {
+            throw new IllegalArgumentException("Lag tuples and powers do not match");
+        }
+        final int nTuples = lags.length;
+        int maxPower = 1;
+        for (int r = 0; r < nTuples; r++) {
+            if (lags[r].length != powers[r].length || lags[r].length == 0) {
+                throw new IllegalArgumentException(String.format("Lags and powers of tuple %d do not match", r));
+            }
+            // offset of the last factor, kept in a long so that huge lags do not wrap
+            long span = -1;
+            for (int k : lags[r]) {
+                if (k <= 0) {
+                    throw new IllegalArgumentException(String.format("Lags of tuple %d must be positive", r));
+                }
+                span += k;
+            }
+            if (span >= n) {
+                throw new IllegalArgumentException(String.format(
+                        "Lags of tuple %d span %d IATs, the trace has %d", r, span + 1, n));
+            }
+            for (int p : powers[r]) {
+                if (p <= 0) {
+                    throw new IllegalArgumentException("Powers must be positive");
+                }
+                maxPower = Math.max(maxPower, p);
+            }
+        }
+
+        // x^p for each power requested, x itself for power 1
+        final double[][] pow = new double[maxPower + 1][];
+        pow[1] = x;
+        for (int[] tuple : powers) {
+            for (int p : tuple) {
+                if (pow[p] == null) {
+                    pow[p] = new double[n];
+                }
+            }
+        }
+        if (maxPower > 1) {
+            Parallel.POOL.invoke(new PowerTask(x, pow, 0, n));
+        }
+
+        // factors of each tuple: the power array and offset of each
+        final double[][][] arrays = new double[nTuples][][];
+        final int[][] offsets = new int[nTuples][];
+        final int[] count = new int[nTuples];
+        for (int r = 0; r < nTuples; r++) {
+            int k = lags[r].length;
+            arrays[r] = new double[k][];
+            offsets[r] = new int[k];
+            int o = lags[r][0] - 1;
+            for (int f = 0; f < k; f++) {
+                if (f > 0) {
+                    o += lags[r][f];
+                }
+                arrays[r][f] = pow[powers[r][f]];
+                offsets[r][f] = o;
+            }
+            count[r] = n - o;
+        }
+        double[] sums = Parallel.sum(new Parallel.RangeKernel() {
+            @Override
+            public double[] sum(long from, long to) {
+                double[] s = new double[nTuples];
+                double[] product = new double[BlockedStatistics.BLOCK];
+                for (int b = (int) from; b < to; b += BlockedStatistics.BLOCK) {
+                    int blockEnd = (int) Math.min(to, b + BlockedStatistics.BLOCK);
+                    for (int r = 0; r < nTuples; r++) {
+                        int len = Math.min(blockEnd, count[r]) - b;
+                        if (len <= 0) {
+                            continue;
+                        }
+                        double[] a = arrays[r][0];
+                        int o = b + offsets[r][0];
+                        for (int t = 0; t < len; t++) {
+                            product[t] = a[o + t];
+                        }
+                        for (int f = 1; f < arrays[r].length; f++) {
+                            a = arrays[r][f];
+                            o = b + offsets[r][f];
+                            for (int t = 0; t < len; t++) {
+                                product[t] *= a[o + t];
+                            }
+                        }
+                        double acc = 0;
+                        for (int t = 0; t < len; t++) {
+                            acc += product[t];
+                        }
+                        s[r] += acc;
+                    }
+                }
+                return s;
+            }
+        }, n, nTuples);
+        for (int r = 0; r < nTuples; r++) {
+            sums[r] /= count[r];
+        }
+        return sums;
+    }
+
+    /**
+     * Fills the power arrays over a range of the trace, splitting the range
+     * in two down to a block.
+     */
+    private static class PowerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final double[] x;
+        final double[][] pow;
+        final int from;
+        final int to;
+
+        PowerTask(double[] x, double[][] pow, int from, int to) {
+            this.x = x;
+            this.pow = pow;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BlockedStatistics.BLOCK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PowerTask(x, pow, from, mid), new PowerTask(x, pow, mid, to));
+                return;
+            }
+            for (int t = from; t < to; t++) {
+                double v = x[t];
+                for (int p = 2; p < pow.length; p++) {
+                    v *= x[t];
+                    if (pow[p] != null) {
+                        pow[p][t] = v;
+                    }
+                }
+            }
+        }
+    }
+}
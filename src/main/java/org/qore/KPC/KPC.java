@@ -193,16 +193,16 @@ public class KPC {
      * @return vector with 2 items [ac fit value, bc fit value].
      */
     public static double[] evaluate(Trace t, MAP map, boolean evalBC) {
-        double e0_sq = t.moments[0] * t.moments[0];
-        double trace_scv = (t.moments[1] - e0_sq) / e0_sq;
+        double e0_sq = t.moments()[0] * t.moments()[0];
+        double trace_scv = (t.moments()[1] - e0_sq) / e0_sq;
         DMatrixRMaj map_acf = new DMatrixRMaj(map.getAcf(t.acLags));
-        DMatrixRMaj trace_acf = new DMatrixRMaj(t.ac);
+        DMatrixRMaj trace_acf = new DMatrixRMaj(t.getAc());
         DMatrixRMaj diff_acf = new DMatrixRMaj();
         CommonOps_DDRM.subtract(trace_acf, map_acf, diff_acf);
         double acfEval = NormOps_DDRM.normP1(diff_acf) / NormOps_DDRM.normP2(trace_acf) +
                 (map.getSCV()-trace_scv) * (map.getSCV()-trace_scv) / (trace_scv * trace_scv);
         if (evalBC) {
-            DMatrixRMaj trace_bc = new DMatrixRMaj(t.bc);
+            DMatrixRMaj trace_bc = new DMatrixRMaj(t.getBc());
             double[] bcVals = new double[t.bcLags.length];
             DMatrixRMaj diff_bc = new DMatrixRMaj();
             for (int i = 0; i < t.bcLags.length; i++) {
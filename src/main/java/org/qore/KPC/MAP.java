@@ -423,6 +423,65 @@ public class MAP {
         return result.get(0); // should be only value
     }
 
+    /**
+     * Calculates the variance of the number of arrivals in a window of
+     * length w and the covariances of the counts of consecutive windows,
+     * according to Narayana and Neuts 1992. With Z = (e*pi - Q)^-1 and
+     * E = exp(Q*w):
+     * Var N(w) = (lambda - 2*lambda^2 + 2*pi*D1*Z*D1*e)*w - 2*pi*D1*(I - E)*Z^2*D1*e,
+     * Cov(N_0(w), N_k(w)) = pi*D1*E^(k-1)*((I - E)*Z)^2*D1*e for k &gt; 0.
+     * The mean count is lambda*w.
+     *
+     * @param w Window length, in the time unit of the MAP.
+     * @param maxLag Largest window lag.
+     * @return Variance of the count at index 0, covariance at window lag k at index k.
+     */
+    public double[] getCountCovariances(double w, int maxLag) {
+        DMatrixRMaj e = MatrixOps.getOnes(numStates);
+        DMatrixRMaj x = ctmc(false); // xQ = 0
+        double lambda = getLambda();
+        DMatrixRMaj z = new DMatrixRMaj(numStates, numStates);
+        CommonOps_DDRM.mult(e, x, z);
+        CommonOps_DDRM.subtractEquals(z, Q);
+        CommonOps_DDRM.invert(z);
+        DMatrixRMaj qw = Q.copy();
+        CommonOps_DDRM.scale(w, qw);
+        DMatrixRMaj expQw = MatrixOps.expm(qw);
+        // (I - E) Z, the integral of exp(Q v) - e pi over the window
+        DMatrixRMaj iMinusE = CommonOps_DDRM.identity(numStates);
+        CommonOps_DDRM.subtractEquals(iMinusE, expQw);
+        DMatrixRMaj integral = new DMatrixRMaj(numStates, numStates);
+        CommonOps_DDRM.mult(iMinusE, z, integral);
+
+        DMatrixRMaj xD1 = new DMatrixRMaj(1, numStates);
+        CommonOps_DDRM.mult(x, D1, xD1);
+        DMatrixRMaj d1e = new DMatrixRMaj(numStates, 1);
+        CommonOps_DDRM.mult(D1, e, d1e);
+        DMatrixRMaj zD1e = new DMatrixRMaj(numStates, 1);
+        CommonOps_DDRM.mult(z, d1e, zD1e);
+        DMatrixRMaj intD1e = new DMatrixRMaj(numStates, 1);
+        CommonOps_DDRM.mult(integral, d1e, intD1e);
+        DMatrixRMaj int2D1e = new DMatrixRMaj(numStates, 1);
+        CommonOps_DDRM.mult(integral, intD1e, int2D1e);
+        DMatrixRMaj intZD1e = new DMatrixRMaj(numStates, 1);
+        CommonOps_DDRM.mult(integral, zD1e, intZD1e);
+
+        double[] cov = new double[maxLag + 1];
+        cov[0] = (lambda - 2 * lambda * lambda + 2 * CommonOps_DDRM.dot(xD1, zD1e)) * w
+                - 2 * CommonOps_DDRM.dot(xD1, intZD1e);
+        // xD1 E^(k-1), advanced one window at a time
+        DMatrixRMaj row = xD1.copy();
+        DMatrixRMaj nextRow = new DMatrixRMaj(1, numStates);
+        for (int k = 1; k <= maxLag; k++) {
+            cov[k] = CommonOps_DDRM.dot(row, int2D1e);
+            CommonOps_DDRM.mult(row, expQw, nextRow);
+            DMatrixRMaj swap = row;
+            row = nextRow;
+            nextRow = swap;
+        }
+        return cov;
+    }
+
     /**
      * Scales MAP to specified mean.
      *
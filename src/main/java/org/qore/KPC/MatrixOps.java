@@ -4,6 +4,7 @@ import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.ejml.data.DMatrixRMaj;
 import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.NormOps_DDRM;
 
 /**
  * Helper static class that performs simple matrix operations useful in MAP fitting.
@@ -55,4 +56,37 @@ public class MatrixOps {
         CommonOps_DDRM.fill(e, 1);
         return e;
     }
+
+    /**
+     * Computes the matrix exponential by scaling and squaring: the input is
+     * scaled so that its infinity norm is at most 1/2, exponentiated by its
+     * Taylor series and squared back.
+     * @param input Square matrix to be exponentiated.
+     * @return new matrix holding exp(input).
+     */
+    protected static DMatrixRMaj expm(DMatrixRMaj input) {
+        int size = input.getNumRows();
+        double norm = NormOps_DDRM.normPInf(input);
+        int squarings = norm > 0.5 ? Math.getExponent(norm) + 2 : 0;
+        DMatrixRMaj a = input.copy();
+        CommonOps_DDRM.scale(Math.pow(2, -squarings), a);
+        DMatrixRMaj result = CommonOps_DDRM.identity(size);
+        DMatrixRMaj term = CommonOps_DDRM.identity(size);
+        DMatrixRMaj next = new DMatrixRMaj(size, size);
+        // terms of a matrix of norm 1/2 fall below double precision by order 18
+        for (int k = 1; k <= 18; k++) {
+            CommonOps_DDRM.mult(1.0 / k, term, a, next);
+            DMatrixRMaj swap = term;
+            term = next;
+            next = swap;
+            CommonOps_DDRM.addEquals(result, term);
+        }
+        for (int i = 0; i < squarings; i++) {
+            CommonOps_DDRM.mult(result, result, next);
+            DMatrixRMaj swap = result;
+            result = next;
+            next = swap;
+        }
+        return result;
+    }
 }
@@ -0,0 +1,152 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Trace storage outside the Java heap, either in direct memory or in a
+ * memory-mapped file of little-endian doubles. The IATs are split into
+ * segments of 2^27 values so the storage is indexed by long and can hold
+ * more than 2^31 IATs.
+ */
+public class OffHeapTraceStorage implements TraceStorage {
+    static final int SEGMENT_SHIFT = 27;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    final DoubleBuffer[] segments;
+    final long size;
+
+    private OffHeapTraceStorage(DoubleBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Allocates zero-filled storage in direct memory.
+     *
+     * @param n Number of IATs.
+     * @return Writable storage.
+     */
+    public static OffHeapTraceStorage allocate(long n) {
+        DoubleBuffer[] segments = new DoubleBuffer[nSegments(n)];
+        for (int s = 0; s < segments.length; s++) {
+            int len = segmentLength(n, s);
+            segments[s] = ByteBuffer.allocateDirect(8 * len).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return new OffHeapTraceStorage(segments, n);
+    }
+
+    /**
+     * Maps a file of raw little-endian doubles read-only.
+     *
+     * @param path Path to the file.
+     * @return Read-only storage of every double in the file.
+     * @throws IOException If can not find or map the file.
+     */
+    public static OffHeapTraceStorage map(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            return map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size() / 8);
+        }
+    }
+
+    /**
+     * Creates a file of n raw little-endian doubles and maps it for writing.
+     *
+     * @param path Path to the file, overwritten if it exists.
+     * @param n Number of IATs.
+     * @return Writable storage backed by the file.
+     * @throws IOException If can not create or map the file.
+     */
+    public static OffHeapTraceStorage create(String path, long n) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw"); FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            file.setLength(8 * n);
+            return map(channel, FileChannel.MapMode.READ_WRITE, 0, n);
+        }
+    }
+
+    /**
+     * Maps n little-endian doubles starting at a byte offset of a file.
+     * The mapping stays valid after the channel is closed.
+     */
+    static OffHeapTraceStorage map(FileChannel channel, FileChannel.MapMode mode, long offset, long n)
+            throws IOException {
+        DoubleBuffer[] segments = new DoubleBuffer[nSegments(n)];
+        for (int s = 0; s < segments.length; s++) {
+            long start = offset + 8L * ((long) s << SEGMENT_SHIFT);
+            int len = segmentLength(n, s);
+            segments[s] = channel.map(mode, start, 8L * len).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return new OffHeapTraceStorage(segments, n);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public double get(long i) {
+        return segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK));
+    }
+
+    @Override
+    public void get(long from, double[] dst, int off, int len) {
+        while (len > 0) {
+            int s = (int) (from >>> SEGMENT_SHIFT);
+            int pos = (int) (from & SEGMENT_MASK);
+            int n = Math.min(len, SEGMENT_SIZE - pos);
+            DoubleBuffer view = segments[s].duplicate();
+            view.position(pos);
+            view.get(dst, off, n);
+            from += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Stores one IAT. Only valid for storage that was allocated or created.
+     *
+     * @param i Index of the IAT.
+     * @param x IAT to store.
+     */
+    public void set(long i, double x) {
+        segments[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK), x);
+    }
+
+    /**
+     * Stores a block of consecutive IATs. Only valid for storage that was allocated or created.
+     *
+     * @param from Index of the first IAT to store.
+     * @param src Source array.
+     * @param off Index in the source of the first IAT.
+     * @param len Number of IATs to store.
+     */
+    public void set(long from, double[] src, int off, int len) {
+        while (len > 0) {
+            int s = (int) (from >>> SEGMENT_SHIFT);
+            int pos = (int) (from & SEGMENT_MASK);
+            int n = Math.min(len, SEGMENT_SIZE - pos);
+            DoubleBuffer view = segments[s].duplicate();
+            view.position(pos);
+            view.put(src, off, n);
+            from += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int nSegments(long n) {
+        return (int) ((n + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    }
+
+    private static int segmentLength(long n, int s) {
+        return (int) Math.min(SEGMENT_SIZE, n - ((long) s << SEGMENT_SHIFT));
+    }
+}
@@ -77,10 +77,10 @@ public class OldACObjFunc implements Calcfc {
             CommonOps_DDRM.divide(result, scv_j, acfCoeff);
         }
 //        System.out.println("scvj: " + scv_j);  // correct
-        double e0_sq = t.moments[0] * t.moments[0];
-        double trace_scv = (t.moments[1] - e0_sq) / e0_sq;
+        double e0_sq = t.moments()[0] * t.moments()[0];
+        double trace_scv = (t.moments()[1] - e0_sq) / e0_sq;
 //        System.out.println("trace scv: " + trace_scv); // correct
-        DMatrixRMaj trace_ac = new DMatrixRMaj(t.ac);
+        DMatrixRMaj trace_ac = new DMatrixRMaj(t.getAc());
         double acNorm = NormOps_DDRM.normP2(trace_ac);
         DMatrixRMaj ac_difference = new DMatrixRMaj();
         CommonOps_DDRM.subtract(trace_ac, acfCoeff, ac_difference);
@@ -0,0 +1,234 @@
+package org.qore.KPC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the autocorrelation at every lag from 0 to maxLag of a trace held
+ * in a storage, with heap use bounded by the block size rather than the trace
+ * length. The mean-adjusted trace is cut into blocks of B values, each
+ * transformed zero-padded to 2B and spilled to a memory-mapped scratch file.
+ * Lags qB to qB + B - 1 pair each block with the two blocks q and q + 1 after
+ * it; the products of their spectra are summed over all blocks in the
+ * frequency domain, so one inverse FFT per q yields the sums of those lags
+ * exactly, the second block being the first shifted by B samples, i.e. its
+ * spectrum times (-1)^f.
+ *
+ * The scratch file takes 16 bytes per IAT, twice the size of the trace in
+ * doubles, and is written once. Each q then reads it about twice, each block
+ * being read as the first and as a later block of the products, so the I/O
+ * is about 32 bytes per IAT times ceil((maxLag + 1) / B). The default block
+ * size covers maxLag in one q whenever the heap allows, as every q smaller
+ * block sizes add costs another two passes over the file.
+ */
+final class OutOfCoreAcf {
+    /**
+     * Number of doubles read from the scratch file at a time.
+     */
+    static final int CHUNK = 1 << 14;
+
+    private OutOfCoreAcf() {}
+
+    /**
+     * Gets a block size whose buffers take at most a quarter of the heap,
+     * no longer than needed to cover maxLag in a single pass.
+     *
+     * @param maxLag Largest lag.
+     * @return Block size, a power of two.
+     */
+    static int defaultBlockSize(int maxLag) {
+        long budget = Runtime.getRuntime().maxMemory() / 4;
+        // accumulator and one padded block per thread, 2B doubles each
+        long perBlock = 16L * (Parallel.POOL.getParallelism() + 1);
+        int b = Equations.nextPowerOfTwo(Math.max(2, maxLag + 1));
+        while (b > CHUNK && b * perBlock > budget) {
+            b >>= 1;
+        }
+        return b;
+    }
+
+    /**
+     * Computes the autocorrelation at lags 0 to maxLag.
+     *
+     * @param data Storage of the IATs.
+     * @param mean Mean of the IATs.
+     * @param maxLag Largest lag, less than the number of IATs.
+     * @param blockSize Number of IATs per block, a power of two.
+     * @param scratchDir Directory of the scratch file, deleted once done, or null for the default temporary directory.
+     * @return Autocorrelation at lags 0 to maxLag.
+     * @throws IOException If can not create or map the scratch file.
+     */
+    static double[] autocorrelation(TraceStorage data, double mean, int maxLag, int blockSize, File scratchDir)
+            throws IOException {
+        long n = data.size();
+        if (blockSize < 2 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two no less than 2");
+        }
+        if (maxLag < 0 || maxLag >= n) {
+            throw new IllegalArgumentException(String.format("Lags must be between 0 and %d", n - 1));
+        }
+        int l = 2 * blockSize;
+        long nBlocks = (n + blockSize - 1) / blockSize;
+        File scratch = File.createTempFile("acf", ".spectra", scratchDir);
+        try {
+            OffHeapTraceStorage spectra = OffHeapTraceStorage.create(scratch.getPath(), nBlocks * l);
+            int grain = (int) Math.max(1, nBlocks / (4 * Parallel.POOL.getParallelism()));
+            double acov0 = Parallel.POOL.invoke(new SpectrumTask(data, mean, spectra, blockSize, grain, 0, nBlocks));
+
+            double[] result = new double[maxLag + 1];
+            double[] acc = new double[l];
+            int fGrain = Math.max(CHUNK, l / (4 * Parallel.POOL.getParallelism()));
+            for (int q = 0; (long) q * blockSize <= maxLag; q++) {
+                Arrays.fill(acc, 0);
+                Parallel.POOL.invoke(new ProductTask(spectra, nBlocks, l, q, acc, fGrain, 0, l));
+                RealFFT.forSize(l).inverse(acc);
+                int first = q * blockSize;
+                int count = Math.min(blockSize, maxLag + 1 - first);
+                for (int r = 0; r < count; r++) {
+                    result[first + r] = acc[r] / acov0;
+                }
+            }
+            return result;
+        } finally {
+            scratch.delete();
+        }
+    }
+
+    /**
+     * Transforms a range of blocks into the scratch file, returning the sum of
+     * their squared mean-adjusted IATs.
+     */
+    private static class SpectrumTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        final TraceStorage data;
+        final double mean;
+        final OffHeapTraceStorage spectra;
+        final int blockSize;
+        final int grain;
+        final long from;
+        final long to;
+
+        SpectrumTask(TraceStorage data, double mean, OffHeapTraceStorage spectra, int blockSize, int grain,
+                     long from, long to) {
+            this.data = data;
+            this.mean = mean;
+            this.spectra = spectra;
+            this.blockSize = blockSize;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > grain) {
+                long mid = (from + to) >>> 1;
+                SpectrumTask left = new SpectrumTask(data, mean, spectra, blockSize, grain, from, mid);
+                left.fork();
+                double right = new SpectrumTask(data, mean, spectra, blockSize, grain, mid, to).compute();
+                return left.join() + right;
+            }
+            int l = 2 * blockSize;
+            double[] buf = new double[l];
+            RealFFT fft = RealFFT.forSize(l);
+            double squares = 0;
+            for (long b = from; b < to; b++) {
+                long start = b * blockSize;
+                int len = (int) Math.min(blockSize, data.size() - start);
+                data.get(start, buf, 0, len);
+                for (int t = 0; t < len; t++) {
+                    buf[t] -= mean;
+                    squares += buf[t] * buf[t];
+                }
+                Arrays.fill(buf, len, l, 0);
+                fft.forward(buf);
+                spectra.set(b * l, buf, 0, l);
+            }
+            return squares;
+        }
+    }
+
+    /**
+     * Accumulates conj(Y_b) (Y_{b+q} + (-1)^f Y_{b+q+1}) over all blocks b
+     * for a range of the packed spectrum, splitting the range in two.
+     */
+    private static class ProductTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final OffHeapTraceStorage spectra;
+        final long nBlocks;
+        final int l;
+        final int q;
+        final double[] acc;
+        final int grain;
+        final int from;
+        final int to;
+
+        ProductTask(OffHeapTraceStorage spectra, long nBlocks, int l, int q, double[] acc, int grain,
+                    int from, int to) {
+            this.spectra = spectra;
+            this.nBlocks = nBlocks;
+            this.l = l;
+            this.q = q;
+            this.acc = acc;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                // halves stay aligned to the re/im pairs
+                int mid = ((from + to) >>> 1) & ~1;
+                invokeAll(new ProductTask(spectra, nBlocks, l, q, acc, grain, from, mid),
+                        new ProductTask(spectra, nBlocks, l, q, acc, grain, mid, to));
+                return;
+            }
+            double[] y = new double[CHUNK];
+            double[] cur = new double[CHUNK];
+            double[] next = new double[CHUNK];
+            for (int c = from; c < to; c += CHUNK) {
+                int len = Math.min(CHUNK, to - c);
+                // block q + b, rolled on as the block q + b + 1 of the previous b
+                read(q, c, cur, len);
+                for (long b = 0; b + q < nBlocks; b++) {
+                    spectra.get(b * l + c, y, 0, len);
+                    read(b + q + 1, c, next, len);
+                    for (int i = 0; i < len; i += 2) {
+                        int f = c + i;
+                        if (f == 0) {
+                            // DC and Nyquist terms, both real; (-1)^f = 1 at both as B is even
+                            acc[0] += y[0] * (cur[0] + next[0]);
+                            acc[1] += y[1] * (cur[1] + next[1]);
+                            continue;
+                        }
+                        double sign = ((f >> 1) & 1) == 0 ? 1 : -1;
+                        double sr = cur[i] + sign * next[i];
+                        double si = cur[i + 1] + sign * next[i + 1];
+                        acc[f] += y[i] * sr + y[i + 1] * si;
+                        acc[f + 1] += y[i] * si - y[i + 1] * sr;
+                    }
+                    double[] t = cur;
+                    cur = next;
+                    next = t;
+                }
+            }
+        }
+
+        /**
+         * Reads part of the spectrum of a block, zero beyond the last block.
+         */
+        private void read(long b, int c, double[] dst, int len) {
+            if (b < nBlocks) {
+                spectra.get(b * l + c, dst, 0, len);
+            } else {
+                Arrays.fill(dst, 0, len, 0);
+            }
+        }
+    }
+}
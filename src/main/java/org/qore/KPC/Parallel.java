@@ -0,0 +1,81 @@
+package org.qore.KPC;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Shared fork-join pool of the parallel trace kernels, and the range
+ * splitting used to sum a kernel over the indices of a trace.
+ */
+final class Parallel {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Smallest range of indices worth summing as a separate task.
+     */
+    static final int MIN_GRAIN = 1 << 16;
+
+    private Parallel() {}
+
+    /**
+     * Kernel producing a vector of partial sums over a range of indices.
+     */
+    interface RangeKernel {
+        /**
+         * @param from First index of the range.
+         * @param to Index after the last of the range.
+         * @return Partial sums over the range.
+         */
+        double[] sum(long from, long to);
+    }
+
+    /**
+     * Sums a kernel over the indices [0, n), splitting the range across the pool
+     * and adding up the partial sums element-wise.
+     *
+     * @param kernel Kernel to sum.
+     * @param n Number of indices.
+     * @param width Number of sums produced by the kernel.
+     * @return Element-wise total of the partial sums.
+     */
+    static double[] sum(RangeKernel kernel, long n, int width) {
+        if (n <= 0) {
+            return new double[width];
+        }
+        long grain = Math.max(MIN_GRAIN, n / (8L * POOL.getParallelism()));
+        return POOL.invoke(new SumTask(kernel, 0, n, grain));
+    }
+
+    private static class SumTask extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        final RangeKernel kernel;
+        final long from;
+        final long to;
+        final long grain;
+
+        SumTask(RangeKernel kernel, long from, long to, long grain) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= grain) {
+                return kernel.sum(from, to);
+            }
+            long mid = from + (to - from) / 2;
+            SumTask left = new SumTask(kernel, from, mid, grain);
+            left.fork();
+            double[] right = new SumTask(kernel, mid, to, grain).compute();
+            double[] result = left.join();
+            for (int i = 0; i < result.length; i++) {
+                result[i] += right[i];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.qore.KPC;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-place FFT of real data held in a primitive array. A transform of n reals
+ * is computed as a complex FFT of n/2 points over the interleaved even and odd
+ * samples, followed by a split step, so no Complex objects are created.
+ * The spectrum is packed into the input array as
+ * {X_0, X_{n/2}, Re X_1, Im X_1, ..., Re X_{n/2-1}, Im X_{n/2-1}},
+ * the remaining coefficients being the conjugates of these.
+ * Instances hold only a quarter-wave cosine table and are shared per size
+ * while in use. The cache holds them by soft reference, so the tables of
+ * large sizes no longer used are reclaimed when memory runs low rather than
+ * kept for the life of the JVM.
+ */
+final class RealFFT {
+    private static final ConcurrentMap<Integer, SoftReference<RealFFT>> CACHE = new ConcurrentHashMap<>();
+
+    final int n;
+    /**
+     * cos(2 pi k / n) for k = 0 .. n/4.
+     */
+    private final double[] cos;
+
+    private RealFFT(int n) {
+        this.n = n;
+        cos = new double[n / 4 + 1];
+        for (int k = 0; k < cos.length; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / n);
+        }
+    }
+
+    /**
+     * Gets the transform of a size, reusing the twiddle table of earlier
+     * transforms of the same size unless it has been reclaimed.
+     *
+     * @param n Number of reals, a power of two no less than 2.
+     * @return Transform of the size.
+     */
+    static RealFFT forSize(int n) {
+        if (n < 2 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two no less than 2, not " + n);
+        }
+        SoftReference<RealFFT> ref = CACHE.get(n);
+        RealFFT fft = ref == null ? null : ref.get();
+        if (fft == null) {
+            // a table built twice by racing threads is only wasted work
+            fft = new RealFFT(n);
+            CACHE.put(n, new SoftReference<>(fft));
+        }
+        return fft;
+    }
+
+    /**
+     * Transforms n reals into their packed spectrum, in place.
+     *
+     * @param x Array of at least n reals.
+     */
+    void forward(double[] x) {
+        int m = n / 2;
+        complex(x, m, false);
+        double re = x[0];
+        double im = x[1];
+        x[0] = re + im;
+        x[1] = re - im;
+        for (int k = 1; k <= m / 2; k++) {
+            int a = 2 * k;
+            int b = 2 * (m - k);
+            double er = 0.5 * (x[a] + x[b]);
+            double ei = 0.5 * (x[a + 1] - x[b + 1]);
+            double or = 0.5 * (x[a] - x[b]);
+            double oi = 0.5 * (x[a + 1] + x[b + 1]);
+            double wr = cos(k);
+            double wi = -sin(k);
+            double p = wr * or - wi * oi;
+            double q = wr * oi + wi * or;
+            x[a] = er + q;
+            x[a + 1] = ei - p;
+            x[b] = er - q;
+            x[b + 1] = -ei - p;
+        }
+    }
+
+    /**
+     * Transforms a packed spectrum back into n reals, in place, so that
+     * inverse(forward(x)) = x.
+     *
+     * @param x Array of at least n values holding a packed spectrum.
+     */
+    void inverse(double[] x) {
+        int m = n / 2;
+        double first = x[0];
+        double last = x[1];
+        x[0] = 0.5 * (first + last);
+        x[1] = 0.5 * (first - last);
+        for (int k = 1; k <= m / 2; k++) {
+            int a = 2 * k;
+            int b = 2 * (m - k);
+            double er = 0.5 * (x[a] + x[b]);
+            double ei = 0.5 * (x[a + 1] - x[b + 1]);
+            double pr = 0.5 * (x[a] - x[b]);
+            double pi = 0.5 * (x[a + 1] + x[b + 1]);
+            // O = i conj(W_k) P
+            double wr = cos(k);
+            double wi = sin(k);
+            double tr = wr * pr - wi * pi;
+            double ti = wr * pi + wi * pr;
+            double or = -ti;
+            double oi = tr;
+            x[a] = er + or;
+            x[a + 1] = ei + oi;
+            x[b] = er - or;
+            x[b + 1] = -(ei - oi);
+        }
+        complex(x, m, true);
+        double scale = 1.0 / m;
+        for (int i = 0; i < n; i++) {
+            x[i] *= scale;
+        }
+    }
+
+    /**
+     * Unscaled radix-2 FFT of m interleaved complex values, in place.
+     */
+    private void complex(double[] x, int m, boolean inverse) {
+        // bit reversal permutation
+        for (int i = 1, j = 0; i < m; i++) {
+            int bit = m >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = x[2 * i];
+                x[2 * i] = x[2 * j];
+                x[2 * j] = t;
+                t = x[2 * i + 1];
+                x[2 * i + 1] = x[2 * j + 1];
+                x[2 * j + 1] = t;
+            }
+        }
+        double sign = inverse ? 1 : -1;
+        for (int len = 2; len <= m; len <<= 1) {
+            int half = len >> 1;
+            int stride = n / len; // twiddle k of this stage is entry k * stride of the n-point table
+            for (int i = 0; i < m; i += len) {
+                for (int j = 0; j < half; j++) {
+                    double wr = cos(j * stride);
+                    double wi = sign * sin(j * stride);
+                    int u = 2 * (i + j);
+                    int v = u + len;
+                    double vr = x[v] * wr - x[v + 1] * wi;
+                    double vi = x[v] * wi + x[v + 1] * wr;
+                    x[v] = x[u] - vr;
+                    x[v + 1] = x[u + 1] - vi;
+                    x[u] += vr;
+                    x[u + 1] += vi;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return cos(2 pi k / n) for k in [0, n/2].
+     */
+    private double cos(int k) {
+        int quarter = n >> 2;
+        return k <= quarter ? cos[k] : -cos[(n >> 1) - k];
+    }
+
+    /**
+     * @return sin(2 pi k / n) for k in [0, n/2].
+     */
+    private double sin(int k) {
+        int quarter = n >> 2;
+        return k <= quarter ? cos[quarter - k] : cos[k - quarter];
+    }
+}
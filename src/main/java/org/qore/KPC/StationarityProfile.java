@@ -0,0 +1,202 @@
+package org.qore.KPC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Screens a trace for non-stationarity before fitting. The trace is split into
+ * consecutive windows whose mean, SCV and autocorrelations at a few short lags
+ * are computed in parallel with the moment and AC kernels of Trace, and
+ * compared with those of the whole trace. Windows whose mean or SCV differ by
+ * more than a relative tolerance, or whose autocorrelations differ by more
+ * than the tolerance, are flagged as drifting.
+ */
+public class StationarityProfile {
+    static final int[] DEFAULT_LAGS = {1, 2, 5, 10};
+    static final double DEFAULT_TOLERANCE = 0.25;
+
+    final int windowSize;
+    final int[] lags;
+    final double tolerance;
+
+    double mean;
+    double scv;
+    double[] ac;
+    double[] windowMeans;
+    double[] windowSCVs;
+    double[][] windowAc;
+    boolean[] drifting;
+
+    private StationarityProfile(int windowSize, int[] lags, double tolerance) {
+        this.windowSize = windowSize;
+        this.lags = lags;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Profiles a trace with the default lags {1, 2, 5, 10} and tolerance 0.25.
+     *
+     * @param data IATs of the trace.
+     * @param windowSize Number of IATs in each window.
+     * @return Profile of the trace.
+     */
+    public static StationarityProfile of(double[] data, int windowSize) {
+        return of(data, windowSize, DEFAULT_LAGS, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Profiles a trace. The last window also holds the IATs left over when the
+     * trace length is not a multiple of the window size.
+     *
+     * @param data IATs of the trace.
+     * @param windowSize Number of IATs in each window, greater than the largest lag.
+     * @param lags Short AC lags compared across windows.
+     * @param tolerance Relative drift of the mean and SCV, and absolute drift of the AC, allowed.
+     * @return Profile of the trace.
+     */
+    public static StationarityProfile of(final double[] data, final int windowSize, final int[] lags,
+                                         double tolerance) {
+        int maxLag = 0;
+        for (int k : lags) {
+            maxLag = Math.max(maxLag, k);
+        }
+        if (windowSize <= maxLag || windowSize > data.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Window size must be between %d and %d", maxLag + 1, data.length));
+        }
+        final StationarityProfile p = new StationarityProfile(windowSize, lags.clone(), tolerance);
+        double[] m = BlockedStatistics.moments(data, data.length, 2);
+        p.mean = m[0];
+        p.scv = scv(m);
+        p.ac = AcfEngine.autocorrelation(data, data.length, p.mean, p.lags);
+
+        int nWindows = data.length / windowSize;
+        p.windowMeans = new double[nWindows];
+        p.windowSCVs = new double[nWindows];
+        p.windowAc = new double[nWindows][];
+        p.drifting = new boolean[nWindows];
+        Parallel.POOL.invoke(new WindowTask(p, data, 0, nWindows));
+        return p;
+    }
+
+    private static double scv(double[] m) {
+        return (m[1] - m[0] * m[0]) / (m[0] * m[0]);
+    }
+
+    /**
+     * Computes the characteristics of window w and compares them with the whole trace.
+     */
+    private void profileWindow(double[] data, int w) {
+        int from = w * windowSize;
+        int to = w == windowMeans.length - 1 ? data.length : from + windowSize;
+        double[] m = BlockedStatistics.moments(data, from, to - from, 2);
+        windowMeans[w] = m[0];
+        windowSCVs[w] = scv(m);
+        windowAc[w] = AcfEngine.autocorrelation(data, from, to - from, m[0], lags);
+        boolean drift = Math.abs(windowMeans[w] - mean) > tolerance * Math.abs(mean)
+                || Math.abs(windowSCVs[w] - scv) > tolerance * Math.abs(scv);
+        for (int i = 0; i < lags.length; i++) {
+            drift |= Math.abs(windowAc[w][i] - ac[i]) > tolerance;
+        }
+        drifting[w] = drift;
+    }
+
+    /**
+     * @return Mean of each window.
+     */
+    public double[] getWindowMeans() {
+        return windowMeans;
+    }
+
+    /**
+     * @return SCV of each window.
+     */
+    public double[] getWindowSCVs() {
+        return windowSCVs;
+    }
+
+    /**
+     * @return Autocorrelations of each window at the profile lags.
+     */
+    public double[][] getWindowAc() {
+        return windowAc;
+    }
+
+    /**
+     * @return Indices of the windows flagged as drifting.
+     */
+    public int[] getDriftingWindows() {
+        List<Integer> flagged = new ArrayList<>();
+        for (int w = 0; w < drifting.length; w++) {
+            if (drifting[w]) {
+                flagged.add(w);
+            }
+        }
+        int[] result = new int[flagged.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = flagged.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return If no window drifts beyond the tolerance.
+     */
+    public boolean isStationary() {
+        return getDriftingWindows().length == 0;
+    }
+
+    /**
+     * @return One line per window with its mean, SCV and AC, drifting windows marked.
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("Trace\tmean %g\tSCV %g\tAC%s %s%n", mean, scv, Arrays.toString(lags),
+                format(ac)));
+        for (int w = 0; w < windowMeans.length; w++) {
+            s.append(String.format("%d\tmean %g\tSCV %g\tAC %s%s%n", w, windowMeans[w], windowSCVs[w],
+                    format(windowAc[w]), drifting[w] ? "\t**** drift ****" : ""));
+        }
+        return s.toString();
+    }
+
+    private static String format(double[] values) {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            s.append(i == 0 ? "" : ", ").append(String.format("%.3f", values[i]));
+        }
+        return s.append(']').toString();
+    }
+
+    /**
+     * Profiles a range of windows, splitting the range in two.
+     */
+    private static class WindowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final StationarityProfile profile;
+        final double[] data;
+        final int from;
+        final int to;
+
+        WindowTask(StationarityProfile profile, double[] data, int from, int to) {
+            this.profile = profile;
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                profile.profileWindow(data, from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new WindowTask(profile, data, from, mid), new WindowTask(profile, data, mid, to));
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.qore.KPC;
+
+/**
+ * Incremental trace statistics over a live stream of IATs, consumed one at a
+ * time. Raw moments, autocorrelations at log-spaced lags and bicorrelations
+ * at the lag trios of a Trace are kept either over a sliding window of the
+ * most recent IATs, or over all IATs with exponentially decaying weights.
+ * Updates cost O(maxMoments + lags + trios) and allocate nothing; only the
+ * window, or the last 2 * maxLag + 1 IATs under decay, are stored.
+ * A Trace snapshot can be taken at any time and fitted with TraceFitter.
+ */
+public class StreamingTraceStats {
+    /**
+     * Number of IATs in the sliding window, or 0 under exponential decay.
+     */
+    final int window;
+    /**
+     * Weight multiplying all sums at each update, 1 for the sliding window.
+     */
+    final double decay;
+    final int maxMoments;
+    /**
+     * Empty trace holding the lags captured, copied into each snapshot.
+     */
+    final Trace lags;
+
+    // recent IATs, by absolute index modulo the capacity
+    final double[] history;
+    long count;
+    private long sinceRecompute;
+    // IATs are shifted by the first IAT in the autocorrelation sums to limit cancellation
+    private double shift;
+
+    // weighted power sums of the IATs and their total weight
+    final double[] powerSums;
+    double weight;
+    // weighted sum and sum of squares of the shifted IATs
+    double s1;
+    double s2;
+    // per AC lag: sum of products, sums of the earlier and later factors, and pair weight
+    final int[] acLags;
+    final double[] acProducts;
+    final double[] acEarlier;
+    final double[] acLater;
+    final double[] acWeight;
+    // per BC trio: offsets of the second and third factors, sum of products and weight
+    final int[] bcMiddle;
+    final int[] bcLast;
+    final double[] bcProducts;
+    final double[] bcWeight;
+
+    private StreamingTraceStats(int window, double decay, int maxLag, int nLags, int nBCValues, int maxMoments) {
+        if (maxLag < 1) {
+            throw new IllegalArgumentException("Maximum lag must be positive");
+        }
+        this.window = window;
+        this.decay = decay;
+        this.maxMoments = maxMoments;
+        lags = new Trace();
+        lags.nLags = nLags;
+        lags.nBCValues = nBCValues;
+        lags.maxMoments = maxMoments;
+        lags.initLags(maxLag);
+
+        acLags = lags.acLags;
+        acProducts = new double[acLags.length];
+        acEarlier = new double[acLags.length];
+        acLater = new double[acLags.length];
+        acWeight = new double[acLags.length];
+        int nTrios = lags.bcLags.length;
+        bcMiddle = new int[nTrios];
+        bcLast = new int[nTrios];
+        int maxOffset = acLags[acLags.length-1];
+        for (int r = 0; r < nTrios; r++) {
+            bcMiddle[r] = lags.bcLags[r][1];
+            bcLast[r] = lags.bcLags[r][1] + lags.bcLags[r][2];
+            maxOffset = Math.max(maxOffset, bcLast[r]);
+        }
+        bcProducts = new double[nTrios];
+        bcWeight = new double[nTrios];
+        powerSums = new double[maxMoments];
+        if (window > 0 && window <= maxOffset) {
+            throw new IllegalArgumentException(String.format(
+                    "Window of %d IATs is too short for lags up to %d", window, maxOffset));
+        }
+        history = new double[window > 0 ? window : maxOffset + 1];
+    }
+
+    /**
+     * Statistics over a sliding window of the most recent IATs, capturing
+     * the default characteristics of a Trace.
+     *
+     * @param window Number of IATs in the window.
+     * @return Empty statistics.
+     */
+    public static StreamingTraceStats slidingWindow(int window) {
+        return slidingWindow(window, 500, 5, 10);
+    }
+
+    /**
+     * Statistics over a sliding window of the most recent IATs. As for a Trace
+     * of the window length, AC lags go up to a tenth of the window.
+     *
+     * @param window Number of IATs in the window.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Empty statistics.
+     */
+    public static StreamingTraceStats slidingWindow(int window, int nLags, int nBCValues, int maxMoments) {
+        int maxLag = (int) Math.ceil(window / 10.0);
+        return new StreamingTraceStats(window, 1, maxLag, nLags, nBCValues, maxMoments);
+    }
+
+    /**
+     * Statistics over all IATs, the weight of each IAT being multiplied by
+     * decay at every later IAT, capturing the default characteristics of a Trace.
+     *
+     * @param decay Decay factor in (0, 1), e.g. 1 - 1e-6 for an effective memory of 10^6 IATs.
+     * @param maxLag Largest AC lag.
+     * @return Empty statistics.
+     */
+    public static StreamingTraceStats exponentialDecay(double decay, int maxLag) {
+        return exponentialDecay(decay, maxLag, 500, 5, 10);
+    }
+
+    /**
+     * Statistics over all IATs with exponentially decaying weights.
+     *
+     * @param decay Decay factor in (0, 1).
+     * @param maxLag Largest AC lag.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Empty statistics.
+     */
+    public static StreamingTraceStats exponentialDecay(double decay, int maxLag, int nLags, int nBCValues,
+                                                       int maxMoments) {
+        if (!(decay > 0 && decay < 1)) {
+            throw new IllegalArgumentException("Decay factor must be in (0, 1)");
+        }
+        return new StreamingTraceStats(0, decay, maxLag, nLags, nBCValues, maxMoments);
+    }
+
+    /**
+     * Consumes one IAT.
+     *
+     * @param x IAT.
+     */
+    public void add(double x) {
+        if (count == 0) {
+            shift = x;
+        }
+        int capacity = history.length;
+        if (window > 0 && count >= window) {
+            evict(count - window);
+        } else if (decay != 1) {
+            scale(decay);
+        }
+
+        double p = x;
+        for (int k = 0; k < maxMoments; k++) {
+            powerSums[k] += p;
+            p *= x;
+        }
+        weight += 1;
+        double y = x - shift;
+        s1 += y;
+        s2 += y * y;
+        for (int l = 0; l < acLags.length; l++) {
+            int k = acLags[l];
+            if (count >= k) {
+                double yk = history[(int) ((count - k) % capacity)] - shift;
+                acProducts[l] += yk * y;
+                acEarlier[l] += yk;
+                acLater[l] += y;
+                acWeight[l] += 1;
+            }
+        }
+        for (int r = 0; r < bcLast.length; r++) {
+            long first = count - bcLast[r];
+            if (first >= 0) {
+                bcProducts[r] += history[(int) (first % capacity)]
+                        * history[(int) ((first + bcMiddle[r]) % capacity)] * x;
+                bcWeight[r] += 1;
+            }
+        }
+        history[(int) (count % capacity)] = x;
+        count++;
+
+        // sums kept by adding and removing drift, so they are rebuilt once per window
+        if (window > 0 && count > window && ++sinceRecompute >= window) {
+            recompute();
+        }
+    }
+
+    /**
+     * Removes the contributions of the oldest IAT of a full sliding window,
+     * as the earliest factor of every sum it appears in.
+     */
+    private void evict(long o) {
+        double x = history[(int) (o % window)];
+        double p = x;
+        for (int k = 0; k < maxMoments; k++) {
+            powerSums[k] -= p;
+            p *= x;
+        }
+        weight -= 1;
+        double y = x - shift;
+        s1 -= y;
+        s2 -= y * y;
+        for (int l = 0; l < acLags.length; l++) {
+            double yk = history[(int) ((o + acLags[l]) % window)] - shift;
+            acProducts[l] -= y * yk;
+            acEarlier[l] -= y;
+            acLater[l] -= yk;
+            acWeight[l] -= 1;
+        }
+        for (int r = 0; r < bcLast.length; r++) {
+            bcProducts[r] -= x * history[(int) ((o + bcMiddle[r]) % window)]
+                    * history[(int) ((o + bcLast[r]) % window)];
+            bcWeight[r] -= 1;
+        }
+    }
+
+    /**
+     * Multiplies all sums by a factor.
+     */
+    private void scale(double f) {
+        for (int k = 0; k < maxMoments; k++) {
+            powerSums[k] *= f;
+        }
+        weight *= f;
+        s1 *= f;
+        s2 *= f;
+        for (int l = 0; l < acLags.length; l++) {
+            acProducts[l] *= f;
+            acEarlier[l] *= f;
+            acLater[l] *= f;
+            acWeight[l] *= f;
+        }
+        for (int r = 0; r < bcLast.length; r++) {
+            bcProducts[r] *= f;
+            bcWeight[r] *= f;
+        }
+    }
+
+    /**
+     * Rebuilds all sums of a full sliding window from the IATs it holds.
+     */
+    private void recompute() {
+        sinceRecompute = 0;
+        scale(0);
+        long start = count - window;
+        for (long t = start; t < count; t++) {
+            double x = history[(int) (t % window)];
+            double p = x;
+            for (int k = 0; k < maxMoments; k++) {
+                powerSums[k] += p;
+                p *= x;
+            }
+            double y = x - shift;
+            s1 += y;
+            s2 += y * y;
+        }
+        weight = window;
+        for (int l = 0; l < acLags.length; l++) {
+            int k = acLags[l];
+            double products = 0;
+            double earlier = 0;
+            double later = 0;
+            for (long t = start; t + k < count; t++) {
+                double y = history[(int) (t % window)] - shift;
+                double yk = history[(int) ((t + k) % window)] - shift;
+                products += y * yk;
+                earlier += y;
+                later += yk;
+            }
+            acProducts[l] = products;
+            acEarlier[l] = earlier;
+            acLater[l] = later;
+            acWeight[l] = window - k;
+        }
+        for (int r = 0; r < bcLast.length; r++) {
+            double products = 0;
+            for (long t = start; t + bcLast[r] < count; t++) {
+                products += history[(int) (t % window)] * history[(int) ((t + bcMiddle[r]) % window)]
+                        * history[(int) ((t + bcLast[r]) % window)];
+            }
+            bcProducts[r] = products;
+            bcWeight[r] = window - bcLast[r];
+        }
+    }
+
+    /**
+     * @return Number of IATs consumed so far.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Takes a snapshot of the current statistics as a Trace. AC is available
+     * only at acLags, so order selection needs numMAPs to be set when fitting.
+     *
+     * @return Trace with the characteristics of the window, or of the decayed stream.
+     */
+    public Trace snapshot() {
+        if (count == 0) {
+            throw new IllegalStateException("No IATs consumed");
+        }
+        Trace t = new Trace();
+        t.nLags = lags.nLags;
+        t.nBCValues = lags.nBCValues;
+        t.maxMoments = maxMoments;
+        t.acLags = lags.acLags.clone();
+        t.bcLagValues = lags.bcLagValues.clone();
+        t.getBCLags();
+        t.length = window > 0 ? Math.min(count, window) : count;
+        t.moments = new double[maxMoments];
+        for (int k = 0; k < maxMoments; k++) {
+            t.moments[k] = powerSums[k] / weight;
+        }
+        double mean = s1 / weight;
+        double var = s2 - s1 * mean;
+        t.ac = new double[acLags.length];
+        for (int l = 0; l < acLags.length; l++) {
+            double cov = acProducts[l] - mean * (acEarlier[l] + acLater[l]) + mean * mean * acWeight[l];
+            t.ac[l] = cov / var;
+        }
+        t.bc = new double[bcLast.length];
+        for (int r = 0; r < bcLast.length; r++) {
+            t.bc[r] = bcWeight[r] > 0 ? bcProducts[r] / bcWeight[r] : 0;
+        }
+        return t;
+    }
+}
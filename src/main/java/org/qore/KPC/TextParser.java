@@ -0,0 +1,168 @@
+package org.qore.KPC;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helper static class that tokenizes and parses decimal numbers directly
+ * from the bytes of a buffer, without creating intermediate Strings.
+ */
+final class TextParser {
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POW10 = new double[23];
+
+    /**
+     * Largest integer mantissa that is exactly representable as a double.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private TextParser() {}
+
+    /**
+     * @param b Byte to check.
+     * @return if the byte separates two values.
+     */
+    static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == ',' || b == '\f';
+    }
+
+    /**
+     * @return Index of the first non-delimiter byte in [from, to), or to if none.
+     */
+    static int skipDelimiters(ByteBuffer buf, int from, int to) {
+        while (from < to && isDelimiter(buf.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return Index of the first delimiter byte in [from, to), or to if none.
+     */
+    static int nextDelimiter(ByteBuffer buf, int from, int to) {
+        while (from < to && !isDelimiter(buf.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return Index of the last delimiter byte in [from, to), or from - 1 if none.
+     */
+    static int lastDelimiter(ByteBuffer buf, int from, int to) {
+        int i = to - 1;
+        while (i >= from && !isDelimiter(buf.get(i))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Parses a decimal number occupying the bytes [from, to) of the buffer.
+     * Plain decimal and scientific notation whose significant digits fit exactly
+     * in a double is parsed without allocation and rounds exactly as Double.parseDouble;
+     * anything else falls back on Double.parseDouble.
+     *
+     * @param buf Buffer holding the text.
+     * @param from Index of the first byte of the number.
+     * @param to Index after the last byte of the number.
+     * @return Parsed value.
+     * @throws NumberFormatException If the bytes are not a number.
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        byte c = buf.get(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < to; i++) {
+            c = buf.get(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    // leading zeros are not significant
+                    if (seenPoint) {
+                        exp10--;
+                    }
+                    continue;
+                }
+                if (++digits > 18) {
+                    return slowParse(buf, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    exp10--;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return slowParse(buf, from, to);
+        }
+        if (i < to) {
+            if ((c != 'e' && c != 'E') || ++i == to) {
+                return slowParse(buf, from, to);
+            }
+            boolean negativeExp = false;
+            c = buf.get(i);
+            if (c == '-' || c == '+') {
+                negativeExp = c == '-';
+                if (++i == to) {
+                    return slowParse(buf, from, to);
+                }
+            }
+            int exp = 0;
+            for (; i < to; i++) {
+                c = buf.get(i);
+                if (c < '0' || c > '9' || exp > 100000) {
+                    return slowParse(buf, from, to);
+                }
+                exp = exp * 10 + (c - '0');
+            }
+            exp10 += negativeExp ? -exp : exp;
+        }
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        while (mantissa % 10 == 0) {
+            mantissa /= 10;
+            exp10++;
+        }
+        if (mantissa >= MAX_EXACT || exp10 < -22 || exp10 > 22) {
+            return slowParse(buf, from, to);
+        }
+        double value = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the bytes [from, to) through Double.parseDouble.
+     */
+    private static double slowParse(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(from + i);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,472 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads a delimited text file (e.g. CSV) with a column of absolute arrival
+ * timestamps and derives the IATs on the fly by differencing consecutive
+ * timestamps, in a single streaming pass. Timestamps are split into their
+ * integer and fractional parts before differencing, so epoch nanoseconds
+ * do not lose precision to doubles. Gzip compressed files are supported.
+ */
+public class TimestampReader extends TraceReader {
+    int column = 0;
+    String columnName;
+    boolean header = false;
+    byte delimiter = ',';
+    double scale = 1;
+
+    /**
+     * Constructor reading the first column of a comma separated file without header.
+     */
+    public TimestampReader() {}
+
+    /**
+     * @param index Index (from 0) of the column holding the timestamps.
+     * @return this reader.
+     */
+    public TimestampReader setColumn(int index) {
+        column = index;
+        columnName = null;
+        return this;
+    }
+
+    /**
+     * Selects the timestamp column by its name in the header line. Implies setHeader(true).
+     *
+     * @param name Name of the column holding the timestamps.
+     * @return this reader.
+     */
+    public TimestampReader setColumn(String name) {
+        columnName = name;
+        header = true;
+        return this;
+    }
+
+    /**
+     * @param b If the first line of the file is a header to be skipped.
+     * @return this reader.
+     */
+    public TimestampReader setHeader(boolean b) {
+        header = b;
+        return this;
+    }
+
+    /**
+     * @param c Character separating the columns.
+     * @return this reader.
+     */
+    public TimestampReader setDelimiter(char c) {
+        delimiter = (byte) c;
+        return this;
+    }
+
+    /**
+     * Sets the factor the timestamp differences are multiplied by, e.g.
+     * 1e-9 to obtain IATs in seconds from timestamps in nanoseconds.
+     *
+     * @param d Scaling factor of the IATs.
+     * @return this reader.
+     */
+    public TimestampReader setScale(double d) {
+        scale = d;
+        return this;
+    }
+
+    @Override
+    String describe() {
+        return String.format("%s[column=%d,name=%s,header=%b,delimiter=%d,scale=%s]",
+                super.describe(), column, columnName, header, delimiter, Double.toString(scale));
+    }
+
+    /**
+     * Appends at most maxLength IATs derived from a timestamp file to a builder.
+     * With a parallelism above 1, uncompressed files read whole are split into
+     * ranges of lines parsed in parallel, the IAT across each range boundary
+     * being added when the ranges are stitched together.
+     *
+     * @param path Path to the timestamp file.
+     * @param out Builder the IATs are added to.
+     * @param maxLength Maximum number of IATs to read.
+     * @throws IOException If can not find or read from file specified, or the column is missing.
+     */
+    @Override
+    public void read(String path, TraceBuilder out, long maxLength) throws IOException {
+        ParseState state = new ParseState();
+        if (GzipStage.isGzip(path)) {
+            boolean skipHeader = header;
+            int col = column;
+            long n = 0;
+            try (GzipStage stage = new GzipStage(path, true)) {
+                ByteBuffer block;
+                while (n < maxLength && (block = stage.take()) != null) {
+                    int i = 0;
+                    if (skipHeader) {
+                        i = headerEnd(block, 0, block.limit());
+                        col = findColumn(block, 0, i);
+                        skipHeader = false;
+                    }
+                    n += parseLines(block, i, block.limit(), col, out, maxLength - n, state);
+                    stage.release(block);
+                }
+            }
+        } else {
+            try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+                long size = channel.size();
+                long start = 0;
+                int col = column;
+                if (header && size > 0) {
+                    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, size));
+                    start = headerEnd(buf, 0, buf.limit());
+                    col = findColumn(buf, 0, (int) start);
+                }
+                if (parallelism > 1 && maxLength == Long.MAX_VALUE && size - start > MIN_RANGE) {
+                    readParallel(channel, start, col, out, state);
+                } else {
+                    readSequential(channel, start, col, out, maxLength, state);
+                }
+            }
+        }
+        if (state.negative > 0) {
+            Constants.LOGGER.warning(String.format("%d timestamps out of order in %s", state.negative, path));
+        }
+    }
+
+    /**
+     * Parses the lines from offset start window by window on the calling thread.
+     */
+    private void readSequential(FileChannel channel, long start, int col, TraceBuilder out, long maxLength,
+                                ParseState state) throws IOException {
+        long size = channel.size();
+        long pos = start;
+        long n = 0;
+        while (pos < size && n < maxLength) {
+            int len = (int) Math.min(WINDOW, size - pos);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            int end = len;
+            if (pos + len < size) {
+                end = lastLineBreak(buf, len) + 1;
+                if (end == 0) {
+                    throw new IOException("Line longer than " + WINDOW + " bytes at offset " + pos);
+                }
+            }
+            n += parseLines(buf, 0, end, col, out, maxLength - n, state);
+            pos += end;
+        }
+    }
+
+    /**
+     * Splits the lines from offset start into ranges ending on a line break,
+     * parses each range into its own builder on a fork-join pool, and appends
+     * the builders in order, each preceded by the IAT between the last
+     * timestamp of the ranges before it and its own first timestamp.
+     */
+    private void readParallel(FileChannel channel, long start, int col, TraceBuilder out, ParseState state)
+            throws IOException {
+        long size = channel.size();
+        long nRanges = Math.max(4L * parallelism, (size - start + WINDOW - 1) / WINDOW);
+        long rangeSize = Math.max(MIN_RANGE, Math.min(WINDOW, (size - start + nRanges - 1) / nRanges));
+        final List<RangeTask> tasks = new ArrayList<>();
+        while (start < size) {
+            long end = lineEnd(channel, start + rangeSize, size);
+            if (end - start > WINDOW) {
+                throw new IOException("Line longer than " + WINDOW + " bytes at offset " + start);
+            }
+            tasks.add(new RangeTask(this, channel, start, end, col, new TraceBuilder(out.singlePrecision)));
+            start = end;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        for (RangeTask task : tasks) {
+            if (task.error != null) {
+                throw task.error;
+            }
+            ParseState range = task.state;
+            if (!range.hasPrev) {
+                continue;
+            }
+            if (state.hasPrev) {
+                add(range.firstInt, range.firstFrac, state, out);
+            }
+            out.append(task.out);
+            state.prevInt = range.prevInt;
+            state.prevFrac = range.prevFrac;
+            state.hasPrev = true;
+            state.negative += range.negative;
+        }
+    }
+
+    /**
+     * Finds the end of a range so that it closes just after a line break.
+     *
+     * @return Offset after the first line break at or after pos, or size.
+     */
+    private static long lineEnd(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the lines in bytes [from, to) of a buffer, adding the IAT
+     * between each timestamp and the previous one.
+     *
+     * @return Number of IATs added to the builder.
+     */
+    private long parseLines(ByteBuffer buf, int from, int to, int col, TraceBuilder out, long maxCount,
+                            ParseState state) {
+        long n = 0;
+        int i = from;
+        while (i < to && n < maxCount) {
+            int lineEnd = i;
+            while (lineEnd < to && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd;
+            if (end > i && buf.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > i) {
+                int start = i;
+                for (int c = 0; c < col && start <= end; c++) {
+                    start = fieldEnd(buf, start, end) + 1;
+                }
+                if (start > end) {
+                    throw new IllegalArgumentException(String.format("Line without column %d", col));
+                }
+                int stop = fieldEnd(buf, start, end);
+                while (start < stop && isBlank(buf.get(start))) {
+                    start++;
+                }
+                while (stop > start && isBlank(buf.get(stop - 1))) {
+                    stop--;
+                }
+                long intPart = parseTimestamp(buf, start, stop, state);
+                if (state.hasPrev) {
+                    add(intPart, state.frac, state, out);
+                    n++;
+                } else {
+                    state.firstInt = intPart;
+                    state.firstFrac = state.frac;
+                }
+                state.prevInt = intPart;
+                state.prevFrac = state.frac;
+                state.hasPrev = true;
+            }
+            i = lineEnd + 1;
+        }
+        return n;
+    }
+
+    /**
+     * Adds the IAT between the previous timestamp of a state and a timestamp.
+     */
+    private void add(long intPart, double frac, ParseState state, TraceBuilder out) {
+        double iat = ((intPart - state.prevInt) + (frac - state.prevFrac)) * scale;
+        if (iat < 0) {
+            state.negative++;
+        }
+        out.add(iat);
+    }
+
+    /**
+     * Parses a timestamp, possibly quoted, into its integer part (returned)
+     * and fractional part (stored in state.frac), both carrying the sign.
+     */
+    private static long parseTimestamp(ByteBuffer buf, int from, int to, ParseState state) {
+        if (to - from >= 2 && buf.get(from) == '"' && buf.get(to - 1) == '"') {
+            from++;
+            to--;
+        }
+        if (from >= to) {
+            throw new IllegalArgumentException("Empty timestamp");
+        }
+        int i = from;
+        boolean neg = false;
+        if (buf.get(i) == '-' || buf.get(i) == '+') {
+            neg = buf.get(i) == '-';
+            i++;
+        }
+        long intPart = 0;
+        int digits = 0;
+        double frac;
+        while (i < to && buf.get(i) >= '0' && buf.get(i) <= '9') {
+            int d = buf.get(i) - '0';
+            if (intPart > (Long.MAX_VALUE - d) / 10) {
+                break;
+            }
+            intPart = intPart * 10 + d;
+            digits++;
+            i++;
+        }
+        if (i == to && digits > 0) {
+            frac = 0;
+        } else if (i < to && buf.get(i) == '.' && digits > 0 && isPlainFraction(buf, i + 1, to)) {
+            frac = i + 1 == to ? 0 : TextParser.parseDouble(buf, i, to);
+        } else {
+            // exponent or too many digits: split the parsed double instead
+            double v = TextParser.parseDouble(buf, from, to);
+            double floor = Math.floor(Math.abs(v));
+            frac = Math.abs(v) - floor;
+            intPart = (long) floor;
+            neg = v < 0;
+        }
+        state.frac = neg ? -frac : frac;
+        return neg ? -intPart : intPart;
+    }
+
+    private static boolean isPlainFraction(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte c = buf.get(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Index of the delimiter ending the field starting at from, or to.
+     */
+    private int fieldEnd(ByteBuffer buf, int from, int to) {
+        boolean quoted = false;
+        for (int i = from; i < to; i++) {
+            byte c = buf.get(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == delimiter && !quoted) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return Index after the line break ending the header line.
+     */
+    private static int headerEnd(ByteBuffer buf, int from, int to) {
+        int i = from;
+        while (i < to && buf.get(i) != '\n') {
+            i++;
+        }
+        return Math.min(i + 1, to);
+    }
+
+    /**
+     * Resolves the timestamp column, by name if one was given, from the header line.
+     */
+    private int findColumn(ByteBuffer buf, int from, int to) throws IOException {
+        if (columnName == null) {
+            return column;
+        }
+        int start = from;
+        int index = 0;
+        while (start < to) {
+            int end = fieldEnd(buf, start, to);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(start + i);
+            }
+            String name = new String(bytes, StandardCharsets.UTF_8).trim();
+            if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            if (name.equals(columnName)) {
+                return index;
+            }
+            index++;
+            start = end + 1;
+        }
+        throw new IOException("No column named " + columnName);
+    }
+
+    private static int lastLineBreak(ByteBuffer buf, int len) {
+        int i = len - 1;
+        while (i >= 0 && buf.get(i) != '\n') {
+            i--;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Parse state carried from line to line of one sequential pass or range:
+     * the first and previous timestamps, split into their integer and
+     * fractional parts, and the fraction of the timestamp just parsed.
+     */
+    private static final class ParseState {
+        long firstInt;
+        double firstFrac;
+        long prevInt;
+        double prevFrac;
+        boolean hasPrev;
+        double frac;
+        long negative;
+    }
+
+    /**
+     * Parses one range of lines of the file into its own builder and state.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final TimestampReader reader;
+        final FileChannel channel;
+        final long start;
+        final long end;
+        final int col;
+        final TraceBuilder out;
+        final ParseState state = new ParseState();
+        IOException error;
+
+        RangeTask(TimestampReader reader, FileChannel channel, long start, long end, int col, TraceBuilder out) {
+            this.reader = reader;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.col = col;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                int len = (int) (end - start);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+                reader.parseLines(buf, 0, len, col, out, Long.MAX_VALUE, state);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -1,47 +1,70 @@
 package org.qore.KPC;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.ejml.data.DMatrixRMaj;
 import org.ejml.dense.row.CommonOps_DDRM;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.BitSet;
 
 /**
  * Class for representing an Inter-Arrival Time Trace to be fit.
+ * Moments, AC and BC are each computed on first access through their getters,
+ * so a fit using only the AC never makes the BC passes over the data. The IATs
+ * are kept until all three have been computed, or until release is called,
+ * as TraceFitter.fit does once it no longer needs them; a characteristic not
+ * computed by then is no longer available.
  */
 public class Trace {
-    double[] moments;
+    volatile double[] moments;
     /**
      * AC values for all lags specified in acLags
      */
-    double[] ac;
+    volatile double[] ac;
     /**
      * BC values for all lags specified in bcLags
      */
-    double[] bc;
+    volatile double[] bc;
     /**
-     * AC values for all lags specified in acLags
+     * AC values for all lags up to length/10, or only at acFullLags when set,
+     * or null for traces characterised from a TraceStorage.
      */
     double [] acFull; // index-0 = lag-0 = 1;
+    /**
+     * Lags held in acFull in increasing order, or null when it holds every lag.
+     */
+    int[] acFullLags;
 
     int[] acLags;
     int[] bcLagValues;
     int[][] bcLags;
 
-    int length = 999999; // max length of file
+    long length;
     int nLags = 500; // 500 logarithmically spaced correlations
     int nBCValues = 5; // 5^2 different combos of bicorrelations
     int maxMoments = 10;
 
     /**
-     * Creates new trace object by reading in values and calculating characteristics.
-     * Does not keep data stored.
+     * Reader used to parse trace files.
+     */
+    TraceReader reader = new TraceReader();
+
+    /**
+     * IATs of the characteristics not computed yet, from an array or a storage.
+     */
+    private DMatrixRMaj source;
+    private TraceStorage sourceStorage;
+
+    /**
+     * Empty trace whose characteristics are filled in by a factory.
+     */
+    Trace() {}
+
+    /**
+     * Creates new trace object by reading in values, whose characteristics are
+     * calculated on first access. Keeps the data only until then, or until
+     * release is called.
      *
      * @param path Path to the trace data.
      * @throws IOException If can not find or read from file specified.
@@ -52,7 +75,21 @@ public class Trace {
     }
 
     /**
-     * Construct a trace object from an array of IATs.
+     * Creates new trace object reading in values with the given reader.
+     *
+     * @param path Path to the trace data.
+     * @param reader Reader used to parse the trace file.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public Trace(String path, TraceReader reader) throws IOException {
+        this.reader = reader;
+        DMatrixRMaj data = getData(path);
+        init(data);
+    }
+
+    /**
+     * Construct a trace object from an array of IATs. The array is copied, so
+     * changing it afterwards does not change the characteristics computed later.
      * @param data Vector of doubles representing IATs.
      */
     public Trace(double[] data) {
@@ -60,6 +97,22 @@ public class Trace {
         init(new DMatrixRMaj(data));
     }
 
+    /**
+     * Construct a trace object from an array of IATs, specifying the characterstics to fit.
+     * The array is copied.
+     * @param data Vector of doubles representing IATs.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     */
+    public Trace(double[] data, int nLags, int nBCValues, int maxMoments) {
+        this.nLags = nLags;
+        this.nBCValues = nBCValues;
+        this.maxMoments = maxMoments;
+        length = data.length;
+        init(new DMatrixRMaj(data));
+    }
+
     /**
      * Trace constructor allows user to specify the characterstics to fit.
      * @param path Path to trace file.
@@ -76,23 +129,125 @@ public class Trace {
         init(data);
     }
 
+    /**
+     * Trace constructor reading the file with the given reader and capturing the given characteristics.
+     * @param path Path to trace file.
+     * @param reader Reader used to parse the trace file.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @throws IOException Can not find or read file from path.
+     */
+    public Trace(String path, TraceReader reader, int nLags, int nBCValues, int maxMoments) throws IOException {
+        this.reader = reader;
+        this.nLags = nLags;
+        this.nBCValues = nBCValues;
+        this.maxMoments = maxMoments;
+        DMatrixRMaj data = getData(path);
+        init(data);
+    }
+
+    /**
+     * Construct a trace object from IATs held in a storage, which may be off-heap
+     * and hold more than 2^31 IATs. Moments, AC and BC are computed over the storage
+     * in parallel blocks; AC is computed only at acLags, so acFull is not available
+     * unless generated out of core with generateFullAC(File).
+     * @param data Storage of the IATs.
+     */
+    public Trace(TraceStorage data) {
+        length = data.size();
+        init(data);
+    }
+
+    /**
+     * Construct a trace object from IATs held in a storage, specifying the characterstics to fit.
+     * @param data Storage of the IATs.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     */
+    public Trace(TraceStorage data, int nLags, int nBCValues, int maxMoments) {
+        this.nLags = nLags;
+        this.nBCValues = nBCValues;
+        this.maxMoments = maxMoments;
+        length = data.size();
+        init(data);
+    }
+
+    /**
+     * Loads the characteristics of a trace from a binary trace file written by
+     * TraceFile.write, without reading or recomputing from the raw data.
+     *
+     * @param path Path to the binary trace file.
+     * @return Trace with the stored characteristics.
+     * @throws IOException If can not find or read the file, or it is not a trace file.
+     */
+    public static Trace load(String path) throws IOException {
+        try (TraceFile file = TraceFile.open(path)) {
+            return file.getTrace();
+        }
+    }
+
     /**
      * Calculate characteristics of a trace from the given data.
      * @param data Vector of doubles representing IATs.
      */
     private void init(DMatrixRMaj data) {
-        int nMinSupportAC = 10; // minimum number of pts to estimate gamma
-        acLags = Equations.logspacei(1, (int) Math.ceil((double) length/nMinSupportAC), nLags);
+        initLags();
+        source = data;
+    }
+
+    /**
+     * Calculate characteristics of a trace from IATs held in a storage.
+     * @param data Storage of the IATs.
+     */
+    private void init(TraceStorage data) {
+        initLags();
+        sourceStorage = data;
+    }
+
+    /**
+     * Drops the IATs once all characteristics have been computed.
+     */
+    private void releaseIfComplete() {
+        if (moments != null && ac != null && bc != null) {
+            release();
+        }
+    }
+
+    /**
+     * Drops the IATs kept for the characteristics not computed yet, whose
+     * getters then throw an IllegalStateException. Frees the memory of the
+     * trace data once the fit has taken what it needs.
+     */
+    public synchronized void release() {
+        source = null;
+        sourceStorage = null;
+    }
+
+    /**
+     * Determines the AC and BC lags to capture from the trace length.
+     */
+    private void initLags() {
+        initLags(maxLag());
+    }
+
+    /**
+     * Determines the AC and BC lags to capture up to the given AC lag.
+     * @param maxLag Largest AC lag.
+     */
+    void initLags(int maxLag) {
+        acLags = Equations.logspacei(1, maxLag, nLags);
         bcLagValues = Equations.logspacei(1, acLags[acLags.length-1], nBCValues);
         getBCLags();
+    }
 
-        moments = new double[maxMoments];
-        ac = new double[acLags.length];
-        acFull = new double[(int) Math.ceil( (double)length / nMinSupportAC)];
-        bc = new double[nBCValues*nBCValues];
-        generateMoments(data);
-        generateAC(data);
-        generateBC(data);
+    /**
+     * @return Largest AC lag that can be estimated from the trace.
+     */
+    int maxLag() {
+        int nMinSupportAC = 10; // minimum number of pts to estimate gamma
+        return (int) Math.min(Integer.MAX_VALUE, (length + nMinSupportAC - 1) / nMinSupportAC);
     }
 
     /**
@@ -104,16 +259,9 @@ public class Trace {
      * @throws IOException If can not find or read from file specified.
      */
     public DMatrixRMaj getData(String path) throws IOException {
-        double[] data = new double[length];
-        try (FileInputStream input = new FileInputStream(path); Scanner reader = new Scanner(input)) {
-            int i = 0;
-            while (reader.hasNext() && i < length) {
-                data[i++] = reader.nextDouble();
-            }
-            length = i;
-            data = Arrays.copyOfRange(data, 0, i);
-        }
-        return new DMatrixRMaj(data);
+        double[] data = reader.read(path);
+        length = data.length;
+        return DMatrixRMaj.wrap(data.length, 1, data);
     }
 
     /** Generates the moments of the Trace.
@@ -121,13 +269,7 @@ public class Trace {
      * @param data Data of IATS read from Trace file.
      */
     public void generateMoments(DMatrixRMaj data) {
-        DMatrixRMaj result = data.copy();
-        for (int i = 1; i <= maxMoments; i++) {
-            if (i != 1) {
-                CommonOps_DDRM.elementPower(data, i, result);
-            }
-            moments[i-1] = CommonOps_DDRM.elementSum(result) / result.getNumElements();
-        }
+        moments = BlockedStatistics.moments(data.data, data.getNumElements(), maxMoments);
     }
 
     /** Generates the autocorrelations of the Trace.
@@ -136,36 +278,69 @@ public class Trace {
      */
     public void generateAC(DMatrixRMaj data) {
         double mean;
-        if (moments[0] != 0) {
+        if (moments != null && moments[0] != 0) {
             mean = moments[0];
         } else {
             mean = CommonOps_DDRM.elementSum(data) / data.getNumElements();
         }
         int n = data.getNumElements();
-        int l = Equations.nextPowerOfTwo(2*n + 1);
-
-        DMatrixRMaj xAdj = new DMatrixRMaj();
-        CommonOps_DDRM.subtract(data, mean, xAdj);
-        double[] paddedData = Arrays.copyOf(xAdj.data, l);
-        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-        Complex[] z = fft.transform(paddedData, TransformType.FORWARD);
-        Complex[] norms = new Complex[l];
-        for (int i = 0; i < l; i++) {
-            norms[i] = z[i].multiply(z[i].conjugate());
+        int[] lags = acFullLags;
+        if (lags == null) {
+            lags = new int[maxLag() + 1];
+            for (int k = 0; k < lags.length; k++) {
+                lags[k] = k;
+            }
+        }
+        double[] full = AcfEngine.autocorrelation(data.data, n, mean, lags);
+        double[] result = new double[acLags.length];
+        for (int i = 0; i < acLags.length; i++) {
+            result[i] = full[indexOfLag(lags, acLags[i])];
+        }
+        // acFull is published by the volatile write of ac
+        acFull = full;
+        ac = result;
+    }
+
+    /**
+     * Generates the full autocorrelations of a trace characterised from a
+     * storage, out of core, so that order selection can be used. Only blocks
+     * of the trace and their spectra are held in the heap, the spectra of all
+     * blocks being spilled to a scratch file. A trace built from an array has
+     * its full AC computed in memory instead.
+     *
+     * @param scratchDir Directory of the scratch file, or null for the default temporary directory.
+     * @throws IOException If can not create or map the scratch file.
+     * @throws IllegalStateException If the data was released before the AC was computed.
+     */
+    public synchronized void generateFullAC(File scratchDir) throws IOException {
+        TraceStorage data = sourceStorage;
+        if (data == null) {
+            if (source == null) {
+                throw released("full AC was");
+            }
+            moments();
+            generateAC(source);
+            releaseIfComplete();
+            return;
         }
-        Complex[] acov = fft.transform(norms, TransformType.INVERSE);
-        double[] acorr = new double[n];
-        double var = 1;
-        for (int j = 0; j < n; j++) {
-            if (j == 0) {
-                var = acov[j].getReal()/n;
+        double mean = moments()[0];
+        int maxLag = (int) Math.min(maxLag(), data.size() - 1);
+        double[] full = OutOfCoreAcf.autocorrelation(data, mean, maxLag,
+                OutOfCoreAcf.defaultBlockSize(maxLag), scratchDir);
+        if (acFullLags != null) {
+            double[] compact = new double[acFullLags.length];
+            for (int i = 0; i < acFullLags.length; i++) {
+                compact[i] = acFullLags[i] <= maxLag ? full[acFullLags[i]] : 0;
             }
-            acorr[j] = acov[j].getReal() / (n*var);
+            full = compact;
         }
-        acFull = acorr;
+        double[] result = new double[acLags.length];
         for (int i = 0; i < acLags.length; i++) {
-            ac[i] = acFull[acLags[i]];
+            result[i] = acFullLags != null ? full[indexOfLag(acFullLags, acLags[i])] : full[acLags[i]];
         }
+        acFull = full;
+        ac = result;
+        releaseIfComplete();
     }
 
     /** Generates the bicorrelations of the Trace.
@@ -174,21 +349,7 @@ public class Trace {
      */
     public void generateBC(DMatrixRMaj data) {
         // Done assuming all orders = 1 (bicorrelations)
-        // Can be abstracted to include other orders
-        for (int i = 0; i < bcLags.length; i++) {
-            int[] lags = Equations.cumSum(bcLags[i]);
-            for (int j = 0; j < lags.length; j++) {
-                lags[j]--;
-            }
-            int elementCount = data.getNumElements() - lags[2];
-            DMatrixRMaj previous = CommonOps_DDRM.extract(data, 0, elementCount, 0, 1);
-            for (int j = 1; j < lags.length; j++) {
-                DMatrixRMaj dest = CommonOps_DDRM.extract(data, lags[j], elementCount + lags[j], 0, 1);
-                // add in power operation here
-                CommonOps_DDRM.elementMult(previous, dest);
-            }
-            bc[i] = CommonOps_DDRM.elementSum(previous) / elementCount;
-        }
+        bc = BlockedStatistics.bicorrelation(data.data, data.getNumElements(), bcLags);
     }
 
     /**
@@ -208,26 +369,127 @@ public class Trace {
     }
 
     /**
-     * Gets the AC values at the lags desired.
+     * Replaces the BC lag trios to fit by any subset of a bicorrelation
+     * surface of the trace, taking their values from the surface.
+     * bcLagValues and nBCValues then describe the distinct lags i and j
+     * of the trios.
+     *
+     * @param bcLags Lag trios {1, i, j} within the surface.
+     * @param surface Bicorrelation surface of the trace data.
+     * @throws IllegalArgumentException If a trio is not of the form {1, i, j} within the surface.
+     */
+    public synchronized void setBcLags(int[][] bcLags, BicorrelationSurface surface) {
+        int[][] trios = new int[bcLags.length][];
+        BitSet values = new BitSet();
+        for (int r = 0; r < bcLags.length; r++) {
+            int[] trio = bcLags[r];
+            if (trio.length != 3 || trio[0] != 1 || trio[1] < 1 || trio[1] > surface.getMaxI()
+                    || trio[2] < 1 || trio[2] > surface.getMaxJ()) {
+                throw new IllegalArgumentException(String.format(
+                        "Lag trio %s is not of the form {1, i, j} with i <= %d and j <= %d",
+                        Arrays.toString(trio), surface.getMaxI(), surface.getMaxJ()));
+            }
+            trios[r] = trio.clone();
+            values.set(trio[1]);
+            values.set(trio[2]);
+        }
+        bc = surface.atLags(trios);
+        this.bcLags = trios;
+        bcLagValues = new int[values.cardinality()];
+        for (int i = 0, k = values.nextSetBit(0); k >= 0; k = values.nextSetBit(k + 1)) {
+            bcLagValues[i++] = k;
+        }
+        nBCValues = bcLagValues.length;
+        releaseIfComplete();
+    }
+
+    /**
+     * Gets the AC values at the lags desired. Lags beyond maxLag, where the
+     * AC is not estimated, have an AC of 0.
      *
-     * @param lags List of lags of AC values desired.
+     * @param lags List of lags of AC values desired, non-negative.
      * @param n Number of lags desired.
-     * @return
+     * @return AC at each lag.
+     * @throws IllegalStateException If the full AC is not available.
      */
-    public double[] acAtLags(int[] lags, int n) {
+    public synchronized double[] acAtLags(int[] lags, int n) {
+        double[] full = getAcFull();
+        if (full == null) {
+            throw new IllegalStateException("Full AC not available, see generateFullAC(File)");
+        }
+        int maxLag = Math.min(maxLag(), acFullLags == null ? full.length - 1 : Integer.MAX_VALUE);
         double[] result = new double[n];
         for (int i = 0; i < n; i++) {
-            try {
-                int lag = lags[i];
-                result[i] = acFull[lags[i]];
-            } catch (Exception e) {
-                int[] temp = Arrays.copyOfRange(lags, lags.length-50, lags.length);
-                System.out.println(Arrays.toString(temp));
+            int lag = lags[i];
+            if (lag < 0) {
+                throw new IllegalArgumentException(String.format("Negative lag %d", lag));
+            }
+            if (lag <= maxLag) {
+                result[i] = full[acFullLags == null ? lag : indexOfLag(acFullLags, lag)];
             }
         }
         return result;
     }
 
+    /**
+     * @return Position of a lag in a sorted vector of lags.
+     */
+    private static int indexOfLag(int[] lags, int lag) {
+        int i = Arrays.binarySearch(lags, lag);
+        if (i < 0) {
+            throw new IllegalArgumentException(String.format("AC at lag %d is not retained", lag));
+        }
+        return i;
+    }
+
+    /**
+     * Retains the full AC only at the lags needed to fit with the given options:
+     * acLags, and the lags used by BIC order selection unless numMAPs is set.
+     * Rather than length/10 values, acFull then holds a few thousand at most,
+     * indexed by acFullLags, and acAtLags keeps working for those lags.
+     * If the AC has not been computed yet, it is computed only at these lags.
+     * Once the AC has been computed, the lags dropped can not be recovered:
+     * a later call may only retain lags already retained.
+     *
+     * @param options Options the trace is going to be fit with.
+     * @throws IllegalStateException If the options need a lag dropped by an earlier call.
+     */
+    public synchronized void retainAcFor(FittingOptions options) {
+        int maxLag = maxLag();
+        BitSet keep = new BitSet(maxLag + 1);
+        keep.set(0);
+        for (int k : acLags) {
+            keep.set(k);
+        }
+        if (options.numMAPs < 1) {
+            // the states TraceFitter.fit selects the order from
+            int orderMax = TraceFitter.maxStates(TraceFitter.candidateOrders(options));
+            for (int k : TraceFitter.bicLags(maxLag + 1, orderMax)) {
+                keep.set(Math.max(0, k), Math.min(k + orderMax, maxLag) + 1);
+            }
+        }
+        int[] lags = new int[keep.cardinality()];
+        for (int i = 0, k = keep.nextSetBit(0); k >= 0; k = keep.nextSetBit(k + 1)) {
+            lags[i++] = k;
+        }
+        if (acFull != null && acFullLags != null) {
+            for (int k : lags) {
+                if (Arrays.binarySearch(acFullLags, k) < 0) {
+                    throw new IllegalStateException(String.format(
+                            "AC at lag %d was dropped by an earlier retainAcFor", k));
+                }
+            }
+        }
+        if (acFull != null) {
+            double[] compact = new double[lags.length];
+            for (int i = 0; i < lags.length; i++) {
+                compact[i] = acFullLags == null ? acFull[lags[i]] : acFull[indexOfLag(acFullLags, lags[i])];
+            }
+            acFull = compact;
+        }
+        acFullLags = lags;
+    }
+
     /**
      * @return Autocorrelation lags used in trace.
      */
@@ -243,24 +505,95 @@ public class Trace {
     }
 
     /**
-     * @return all AC values.
+     * @return all AC values, or only those at getAcFullLags when set.
      */
-    public double[] getAcFull() {
+    public synchronized double[] getAcFull() {
+        getAc();
         return acFull;
     }
 
+    /**
+     * @return Lags held by getAcFull in increasing order, or null when it holds every lag.
+     */
+    public synchronized int[] getAcFullLags() {
+        return acFullLags;
+    }
+
     /**
      * @return subset of AC values of trace (log spaced).
+     * @throws IllegalStateException If the data was released before the AC was computed.
      */
     public double[] getAc() {
-        return ac;
+        double[] result = ac;
+        if (result == null) {
+            synchronized (this) {
+                if (ac == null) {
+                    if (source != null) {
+                        moments();
+                        generateAC(source);
+                    } else if (sourceStorage != null) {
+                        ac = BlockedStatistics.autocorrelation(sourceStorage, moments()[0], acLags);
+                    } else {
+                        throw released("AC was");
+                    }
+                    releaseIfComplete();
+                }
+                result = ac;
+            }
+        }
+        return result;
     }
 
     /**
      * @return BC values of trace.
+     * @throws IllegalStateException If the data was released before the BC was computed.
      */
     public double[] getBc() {
-        return bc;
+        double[] result = bc;
+        if (result == null) {
+            synchronized (this) {
+                if (bc == null) {
+                    if (source != null) {
+                        generateBC(source);
+                    } else if (sourceStorage != null) {
+                        bc = BlockedStatistics.bicorrelation(sourceStorage, bcLags);
+                    } else {
+                        throw released("BC was");
+                    }
+                    releaseIfComplete();
+                }
+                result = bc;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return All moments of the trace, computed on first access; not to be modified.
+     * @throws IllegalStateException If the data was released before the moments were computed.
+     */
+    double[] moments() {
+        double[] result = moments;
+        if (result == null) {
+            synchronized (this) {
+                if (moments == null) {
+                    if (source != null) {
+                        generateMoments(source);
+                    } else if (sourceStorage != null) {
+                        moments = BlockedStatistics.moments(sourceStorage, maxMoments);
+                    } else {
+                        throw released("moments were");
+                    }
+                    releaseIfComplete();
+                }
+                result = moments;
+            }
+        }
+        return result;
+    }
+
+    private static IllegalStateException released(String characteristic) {
+        return new IllegalStateException("trace data released before " + characteristic + " computed");
     }
 
     /**
@@ -272,7 +605,7 @@ public class Trace {
             throw new IllegalArgumentException(String.format("Only %d moments available", maxMoments));
         }
         double[] result = new double[n];
-        System.arraycopy(moments, 0, result, 0, n);
+        System.arraycopy(moments(), 0, result, 0, n);
         return result;
     }
 }
\ No newline at end of file
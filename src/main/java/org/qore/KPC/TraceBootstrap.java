@@ -0,0 +1,212 @@
+package org.qore.KPC;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moving-block bootstrap of the AC and BC of a trace, giving percentile
+ * intervals to judge whether the discrepancies of a fitted MAP are larger
+ * than the sampling error of the trace. Each replicate joins blocks of
+ * consecutive IATs starting at random positions into a resampled trace of the
+ * same length, whose AC at acLags and BC at bcLags are recomputed.
+ * Replicates are split into about one range per thread of the shared pool; each
+ * range reuses one buffer for the resampled trace and its FFT, so no Trace is
+ * created per replicate.
+ */
+public class TraceBootstrap {
+    final int[] acLags;
+    final int[][] bcLags;
+    final int blockLength;
+    /**
+     * AC of each replicate at acLags.
+     */
+    final double[][] acReplicates;
+    /**
+     * BC of each replicate at bcLags.
+     */
+    final double[][] bcReplicates;
+
+    private TraceBootstrap(Trace trace, int blockLength, int replicates) {
+        acLags = trace.getAcLags();
+        bcLags = trace.getBcLags();
+        this.blockLength = blockLength;
+        acReplicates = new double[replicates][];
+        bcReplicates = new double[replicates][];
+    }
+
+    /**
+     * Bootstraps the AC and BC of a trace.
+     *
+     * @param data IATs the trace was characterised from.
+     * @param trace Trace giving the lags to recompute.
+     * @param blockLength Number of consecutive IATs in each block, at least the
+     *                    lags of interest so that their dependence is preserved.
+     * @param replicates Number of resampled traces.
+     * @param seed Seed of the block positions; results do not depend on the scheduling.
+     * @return Bootstrap replicates of the AC and BC.
+     */
+    public static TraceBootstrap of(double[] data, Trace trace, int blockLength, int replicates, long seed) {
+        if (blockLength < 1 || blockLength > data.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Block length must be between 1 and %d", data.length));
+        }
+        if (replicates < 1) {
+            throw new IllegalArgumentException("Number of replicates must be positive");
+        }
+        TraceBootstrap b = new TraceBootstrap(trace, blockLength, replicates);
+        int grain = (replicates + Parallel.POOL.getParallelism() - 1) / Parallel.POOL.getParallelism();
+        Parallel.POOL.invoke(new ReplicateTask(b, data, seed, grain, 0, replicates));
+        return b;
+    }
+
+    /**
+     * Computes one replicate into a resampling buffer.
+     */
+    private void replicate(double[] data, double[] buf, int r, long seed) {
+        int n = data.length;
+        Random random = new Random(seed + r * 0x9E3779B97F4A7C15L);
+        for (int t = 0; t < n; t += blockLength) {
+            int start = random.nextInt(n - blockLength + 1);
+            System.arraycopy(data, start, buf, t, Math.min(blockLength, n - t));
+        }
+        // BC first, as the AC transforms the buffer in place
+        bcReplicates[r] = BlockedStatistics.bicorrelation(buf, n, bcLags);
+
+        double mean = 0;
+        for (int t = 0; t < n; t++) {
+            mean += buf[t];
+        }
+        mean /= n;
+        double[] ac = new double[acLags.length];
+        if (buf.length > n) {
+            for (int t = 0; t < n; t++) {
+                buf[t] -= mean;
+            }
+            AcfEngine.fftInPlace(buf, n);
+            for (int i = 0; i < acLags.length; i++) {
+                ac[i] = acLags[i] < n ? buf[acLags[i]] / buf[0] : 0;
+            }
+        } else {
+            double acov0 = 0;
+            for (int t = 0; t < n; t++) {
+                double d = buf[t] - mean;
+                acov0 += d * d;
+            }
+            double[] sums = AcfEngine.direct(buf, n, mean, acLags);
+            for (int i = 0; i < acLags.length; i++) {
+                ac[i] = sums[i] / acov0;
+            }
+        }
+        acReplicates[r] = ac;
+    }
+
+    /**
+     * @return Length of the resampling buffer of a trace of n IATs: padded for
+     * the FFT when it is cheaper than direct summation, n otherwise.
+     */
+    private int bufferLength(int n) {
+        int maxLag = 0;
+        for (int k : acLags) {
+            maxLag = Math.max(maxLag, k);
+        }
+        maxLag = Math.min(maxLag, n - 1);
+        if (n > 1 && AcfEngine.fftCost(n, maxLag) < AcfEngine.directCost(n, acLags)) {
+            return AcfEngine.fftSize(n, maxLag);
+        }
+        return n;
+    }
+
+    /**
+     * Percentile interval of the AC at each of acLags.
+     *
+     * @param confidence Coverage of the interval, e.g. 0.95.
+     * @return Lower bounds in row 0 and upper bounds in row 1.
+     */
+    public double[][] acInterval(double confidence) {
+        return interval(acReplicates, confidence);
+    }
+
+    /**
+     * Percentile interval of the BC at each of bcLags.
+     *
+     * @param confidence Coverage of the interval, e.g. 0.95.
+     * @return Lower bounds in row 0 and upper bounds in row 1.
+     */
+    public double[][] bcInterval(double confidence) {
+        return interval(bcReplicates, confidence);
+    }
+
+    private static double[][] interval(double[][] replicates, double confidence) {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1)");
+        }
+        int m = replicates.length;
+        int width = replicates[0].length;
+        double[][] result = new double[2][width];
+        double[] column = new double[m];
+        int lower = (int) Math.floor((1 - confidence) / 2 * (m - 1));
+        int upper = (int) Math.ceil((1 + confidence) / 2 * (m - 1));
+        for (int i = 0; i < width; i++) {
+            for (int r = 0; r < m; r++) {
+                column[r] = replicates[r][i];
+            }
+            Arrays.sort(column);
+            result[0][i] = column[lower];
+            result[1][i] = column[upper];
+        }
+        return result;
+    }
+
+    /**
+     * @return AC of each replicate at acLags.
+     */
+    public double[][] getAcReplicates() {
+        return acReplicates;
+    }
+
+    /**
+     * @return BC of each replicate at bcLags.
+     */
+    public double[][] getBcReplicates() {
+        return bcReplicates;
+    }
+
+    /**
+     * Computes a range of replicates, splitting it in two down to the grain,
+     * with one resampling buffer per range.
+     */
+    private static class ReplicateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final TraceBootstrap bootstrap;
+        final double[] data;
+        final long seed;
+        final int grain;
+        final int from;
+        final int to;
+
+        ReplicateTask(TraceBootstrap bootstrap, double[] data, long seed, int grain, int from, int to) {
+            this.bootstrap = bootstrap;
+            this.data = data;
+            this.seed = seed;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ReplicateTask(bootstrap, data, seed, grain, from, mid),
+                        new ReplicateTask(bootstrap, data, seed, grain, mid, to));
+                return;
+            }
+            double[] buf = new double[bootstrap.bufferLength(data.length)];
+            for (int r = from; r < to; r++) {
+                bootstrap.replicate(data, buf, r, seed);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.qore.KPC;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Accumulates IATs incrementally in primitive chunks and builds a Trace
+ * from them. Chunks are released one by one as they are copied into the
+ * final vector, so building needs little more memory than the data itself.
+ * In single precision mode each chunk is narrowed to floats as soon as it
+ * fills, halving the memory held by the builder.
+ */
+public class TraceBuilder {
+    static final int CHUNK_SIZE = 1 << 17;
+
+    /**
+     * Largest vector the JVM can allocate.
+     */
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Completed chunks, each full to its length.
+     */
+    List<double[]> chunks = new ArrayList<>();
+    /**
+     * Completed chunks in single precision mode, each full to its length.
+     */
+    List<float[]> floatChunks = new ArrayList<>();
+    double[] current;
+    int pos = CHUNK_SIZE;
+    long size = 0;
+    final boolean singlePrecision;
+
+    /**
+     * Constructs an empty builder.
+     */
+    public TraceBuilder() {
+        this(false);
+    }
+
+    /**
+     * Constructs an empty builder, optionally storing the IATs in single precision.
+     *
+     * @param singlePrecision If the IATs are stored as floats.
+     */
+    public TraceBuilder(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Appends one IAT.
+     *
+     * @param x IAT to append.
+     * @return this builder.
+     */
+    public TraceBuilder add(double x) {
+        if (pos == CHUNK_SIZE) {
+            nextChunk();
+        }
+        current[pos++] = x;
+        size++;
+        return this;
+    }
+
+    /**
+     * Appends a range of IATs.
+     *
+     * @param values Array holding the IATs.
+     * @param off Index of the first IAT to append.
+     * @param len Number of IATs to append.
+     * @return this builder.
+     */
+    public TraceBuilder addAll(double[] values, int off, int len) {
+        while (len > 0) {
+            if (pos == CHUNK_SIZE) {
+                nextChunk();
+            }
+            int n = Math.min(len, CHUNK_SIZE - pos);
+            System.arraycopy(values, off, current, pos, n);
+            pos += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+        return this;
+    }
+
+    /**
+     * Appends all the remaining IATs of a buffer, consuming them.
+     *
+     * @param buf Buffer holding the IATs.
+     * @return this builder.
+     */
+    public TraceBuilder add(DoubleBuffer buf) {
+        while (buf.hasRemaining()) {
+            if (pos == CHUNK_SIZE) {
+                nextChunk();
+            }
+            int n = Math.min(buf.remaining(), CHUNK_SIZE - pos);
+            buf.get(current, pos, n);
+            pos += n;
+            size += n;
+        }
+        return this;
+    }
+
+    /**
+     * Appends all the IATs of another builder, emptying it. The chunks
+     * of the other builder are moved rather than copied.
+     *
+     * @param other Builder whose IATs are appended.
+     * @return this builder.
+     */
+    public TraceBuilder append(TraceBuilder other) {
+        if (other.singlePrecision != singlePrecision) {
+            throw new IllegalArgumentException("Can not append builders of different precision");
+        }
+        closeChunk();
+        other.closeChunk();
+        chunks.addAll(other.chunks);
+        floatChunks.addAll(other.floatChunks);
+        size += other.size;
+        other.clear();
+        return this;
+    }
+
+    /**
+     * @return Number of IATs added so far.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Moves all IATs into a single vector and empties the builder. Each
+     * chunk is released as soon as it has been copied.
+     *
+     * @return Vector of all the IATs added.
+     */
+    public double[] toArray() {
+        if (size > MAX_LENGTH) {
+            throw new IllegalStateException(String.format("Trace of %d IATs is too long for an array", size));
+        }
+        double[] data = new double[(int) size];
+        int offset = 0;
+        for (int i = 0; i < floatChunks.size(); i++) {
+            float[] chunk = floatChunks.get(i);
+            for (int j = 0; j < chunk.length; j++) {
+                data[offset + j] = chunk[j];
+            }
+            floatChunks.set(i, null);
+            offset += chunk.length;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            double[] chunk = chunks.get(i);
+            System.arraycopy(chunk, 0, data, offset, chunk.length);
+            chunks.set(i, null);
+            offset += chunk.length;
+        }
+        if (current != null) {
+            System.arraycopy(current, 0, data, offset, pos);
+        }
+        clear();
+        return data;
+    }
+
+    /**
+     * Moves all IATs into a single precision storage and empties the builder.
+     * In double precision mode each chunk is narrowed and released in turn.
+     *
+     * @return Storage of all the IATs added.
+     */
+    public FloatTraceStorage toFloatStorage() {
+        closeChunk();
+        List<float[]> all = floatChunks;
+        for (int i = 0; i < chunks.size(); i++) {
+            all.add(narrow(chunks.get(i), chunks.get(i).length));
+            chunks.set(i, null);
+        }
+        FloatTraceStorage storage = new FloatTraceStorage(all, size);
+        clear();
+        return storage;
+    }
+
+    /**
+     * Builds a Trace from the IATs added, emptying the builder. In single
+     * precision mode the characteristics are computed over a FloatTraceStorage.
+     *
+     * @return Trace with the characteristics of the IATs added.
+     */
+    public Trace build() {
+        return singlePrecision ? new Trace(toFloatStorage()) : new Trace(toArray());
+    }
+
+    /**
+     * Builds a Trace capturing the given characteristics, emptying the builder.
+     *
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Trace with the characteristics of the IATs added.
+     */
+    public Trace build(int nLags, int nBCValues, int maxMoments) {
+        if (singlePrecision) {
+            return new Trace(toFloatStorage(), nLags, nBCValues, maxMoments);
+        }
+        return new Trace(toArray(), nLags, nBCValues, maxMoments);
+    }
+
+    /**
+     * Discards all IATs added.
+     */
+    public void clear() {
+        chunks = new ArrayList<>();
+        floatChunks = new ArrayList<>();
+        current = null;
+        pos = CHUNK_SIZE;
+        size = 0;
+    }
+
+    /**
+     * Moves the partially filled current chunk, trimmed, to the completed chunks.
+     */
+    private void closeChunk() {
+        if (current != null && pos > 0) {
+            if (singlePrecision) {
+                floatChunks.add(narrow(current, pos));
+            } else {
+                chunks.add(pos == CHUNK_SIZE ? current : Arrays.copyOf(current, pos));
+            }
+        }
+        current = null;
+        pos = CHUNK_SIZE;
+    }
+
+    private void nextChunk() {
+        if (current == null) {
+            current = new double[CHUNK_SIZE];
+        } else if (singlePrecision) {
+            // the full chunk is narrowed and its buffer reused
+            floatChunks.add(narrow(current, CHUNK_SIZE));
+        } else {
+            chunks.add(current);
+            current = new double[CHUNK_SIZE];
+        }
+        pos = 0;
+    }
+
+    private static float[] narrow(double[] values, int len) {
+        float[] f = new float[len];
+        for (int i = 0; i < len; i++) {
+            f[i] = (float) values[i];
+        }
+        return f;
+    }
+}
@@ -0,0 +1,189 @@
+package org.qore.KPC;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent on-disk cache of Trace characteristics. Entries are keyed
+ * by a fingerprint of the trace contents together with nLags, nBCValues
+ * and maxMoments, and stored as characteristics-only binary trace files.
+ * The least recently used entries are evicted once the cache exceeds its
+ * size bound.
+ */
+public class TraceCache {
+    static final String SUFFIX = ".kpct";
+
+    File directory;
+    long maxBytes;
+
+    /**
+     * Creates a cache in the given directory, creating it if needed.
+     *
+     * @param directory Directory holding the cache entries.
+     * @param maxBytes Maximum total size of the cache entries.
+     * @throws IOException If the directory can not be created.
+     */
+    public TraceCache(String directory, long maxBytes) throws IOException {
+        this.directory = new File(directory);
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.directory.toPath());
+    }
+
+    /**
+     * Gets the characteristics of a trace file with default settings,
+     * computing and storing them on a miss.
+     *
+     * @param path Path to the trace file.
+     * @return Trace with the characteristics of the file.
+     * @throws IOException If can not read the trace file or the cache.
+     */
+    public Trace get(String path) throws IOException {
+        Trace defaults = new Trace();
+        return get(path, new TraceReader(), defaults.nLags, defaults.nBCValues, defaults.maxMoments);
+    }
+
+    /**
+     * Gets the characteristics of a trace file, computing and storing them on a miss.
+     *
+     * @param path Path to the trace file.
+     * @param reader Reader used to parse the trace file.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Trace with the characteristics of the file.
+     * @throws IOException If can not read the trace file or the cache.
+     */
+    public Trace get(String path, TraceReader reader, int nLags, int nBCValues, int maxMoments) throws IOException {
+        Fingerprint f = new Fingerprint().updateFile(path).update(reader.describe());
+        File entry = entry(f, nLags, nBCValues, maxMoments);
+        Trace t = load(entry);
+        if (t == null) {
+            t = new Trace(path, reader, nLags, nBCValues, maxMoments);
+            store(entry, t);
+        }
+        return t;
+    }
+
+    /**
+     * Gets the characteristics of a vector of IATs, computing and storing them on a miss.
+     *
+     * @param data Vector of IATs.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Trace with the characteristics of the data.
+     * @throws IOException If can not read or write the cache.
+     */
+    public Trace get(double[] data, int nLags, int nBCValues, int maxMoments) throws IOException {
+        Fingerprint f = new Fingerprint().update(data.length).update(data);
+        File entry = entry(f, nLags, nBCValues, maxMoments);
+        Trace t = load(entry);
+        if (t == null) {
+            t = new Trace(data, nLags, nBCValues, maxMoments);
+            store(entry, t);
+        }
+        return t;
+    }
+
+    /**
+     * @return Total size in bytes of the cache entries.
+     */
+    public long size() {
+        long total = 0;
+        for (File file : entries()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * Removes every entry of the cache.
+     */
+    public void clear() {
+        for (File file : entries()) {
+            file.delete();
+        }
+    }
+
+    private File entry(Fingerprint f, int nLags, int nBCValues, int maxMoments) {
+        f.update(nLags).update(nBCValues).update(maxMoments);
+        return new File(directory, String.format("%016x%s", f.value(), SUFFIX));
+    }
+
+    /**
+     * Loads an entry, marking it as recently used.
+     *
+     * @return The cached trace, or null on a miss.
+     */
+    private Trace load(File entry) {
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            Trace t = Trace.load(entry.getPath());
+            entry.setLastModified(System.currentTimeMillis());
+            return t;
+        } catch (IOException e) {
+            Constants.LOGGER.warning("Discarding unreadable cache entry " + entry + ": " + e.getMessage());
+            entry.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry atomically, then evicts the least recently used
+     * entries until the cache fits in its bound.
+     */
+    private void store(File entry, Trace t) throws IOException {
+        File tmp = File.createTempFile("entry", ".tmp", directory);
+        try {
+            TraceFile.write(tmp.getPath(), t, null);
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        evict(entry);
+    }
+
+    private void evict(File keep) {
+        File[] files = entries();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                total -= file.length();
+                file.delete();
+            }
+        }
+    }
+
+    private File[] entries() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[n++] = file;
+            }
+        }
+        return Arrays.copyOf(files, n);
+    }
+}
@@ -0,0 +1,326 @@
+package org.qore.KPC;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary trace file holding the characteristics of a Trace in a header,
+ * optionally followed by the raw IATs as little-endian doubles in fixed-size
+ * blocks. Opening a file reads only the header; the payload is mapped one
+ * block at a time when the raw data is actually requested.
+ *
+ * <pre>
+ * header   magic, version, length, nLags, nBCValues, maxMoments, blockSize,
+ *          array sizes and payload offset
+ * stats    moments, ac, bc (doubles); acLags, bcLagValues, bcLags (ints)
+ * acFull   optional full autocorrelation vector (doubles), followed by its
+ *          lags (ints) when only some are retained
+ * payload  length doubles, blockSize per block
+ * </pre>
+ */
+public class TraceFile implements Closeable {
+    static final int MAGIC = 0x5443504B; // "KPCT"
+    static final int VERSION = 1;
+    static final int FIXED_HEADER = 72;
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20; // doubles per block
+
+    RandomAccessFile file;
+    FileChannel channel;
+    long length;
+    int blockSize;
+    long payloadOffset;
+    long acFullOffset;
+    int acFullCount;
+    int acFullLagCount;
+    Trace trace;
+
+    private TraceFile() {}
+
+    /**
+     * Opens a binary trace file and reads its header.
+     *
+     * @param path Path to the binary trace file.
+     * @return Open trace file, to be closed once done with.
+     * @throws IOException If can not find or read the file, or it is not a trace file.
+     */
+    public static TraceFile open(String path) throws IOException {
+        TraceFile f = new TraceFile();
+        f.file = new RandomAccessFile(path, "r");
+        f.channel = f.file.getChannel();
+        try {
+            f.readHeader();
+        } catch (IOException | RuntimeException e) {
+            f.close();
+            throw e;
+        }
+        return f;
+    }
+
+    /**
+     * Writes a binary trace file with the characteristics of the trace and,
+     * unless data is null, the raw IATs the trace was built from.
+     *
+     * @param path Path of the file to write.
+     * @param t Trace whose characteristics are stored in the header.
+     * @param data IATs of the trace, or null to store the characteristics only.
+     * @throws IOException If can not write the file.
+     */
+    public static void write(String path, Trace t, double[] data) throws IOException {
+        write(path, t, data, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes a binary trace file with the given payload block size.
+     *
+     * @param path Path of the file to write.
+     * @param t Trace whose characteristics are stored in the header.
+     * @param data IATs of the trace, or null to store the characteristics only.
+     * @param blockSize Number of doubles in each payload block.
+     * @throws IOException If can not write the file.
+     */
+    public static void write(String path, Trace t, double[] data, int blockSize) throws IOException {
+        double[] acFull;
+        int[] acFullLags;
+        // read together, as retainAcFor replaces both under the lock of the trace
+        synchronized (t) {
+            acFull = t.getAcFull();
+            acFullLags = t.getAcFullLags();
+        }
+        if (acFull == null) {
+            acFull = new double[0];
+        }
+        if (acFullLags == null || acFull.length == 0) {
+            acFullLags = new int[0];
+        }
+        long length = data == null ? 0 : data.length;
+        long statsBytes = 8L * (t.moments().length + t.getAc().length + t.getBc().length)
+                + 4L * (t.acLags.length + t.bcLagValues.length + 3 * t.bcLags.length);
+        long acFullOffset = align(FIXED_HEADER + statsBytes);
+        long payloadOffset = align(acFullOffset + 8L * acFull.length + 4L * acFullLags.length);
+
+        try (RandomAccessFile out = new RandomAccessFile(path, "rw"); FileChannel ch = out.getChannel()) {
+            out.setLength(0);
+            ByteBuffer head = ByteBuffer.allocate((int) acFullOffset).order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(MAGIC).putInt(VERSION).putLong(length)
+                    .putInt(t.nLags).putInt(t.nBCValues).putInt(t.maxMoments).putInt(blockSize)
+                    .putInt(t.moments().length).putInt(t.getAc().length).putInt(t.getBc().length)
+                    .putInt(t.bcLagValues.length).putInt(acFull.length).putInt(acFullLags.length)
+                    .putLong(t.length).putLong(payloadOffset);
+            head.position(FIXED_HEADER);
+            putDoubles(head, t.moments());
+            putDoubles(head, t.getAc());
+            putDoubles(head, t.getBc());
+            putInts(head, t.acLags);
+            putInts(head, t.bcLagValues);
+            for (int[] lags : t.bcLags) {
+                putInts(head, lags);
+            }
+            head.rewind();
+            writeFully(ch, head, 0);
+            writeDoubles(ch, acFull, acFullOffset);
+            if (acFullLags.length > 0) {
+                ByteBuffer lags = ByteBuffer.allocate(4 * acFullLags.length).order(ByteOrder.LITTLE_ENDIAN);
+                putInts(lags, acFullLags);
+                lags.rewind();
+                writeFully(ch, lags, acFullOffset + 8L * acFull.length);
+            }
+            if (data != null) {
+                writeDoubles(ch, data, payloadOffset);
+            }
+        }
+    }
+
+    /**
+     * Reads the header and builds the trace characteristics from it.
+     */
+    private void readHeader() throws IOException {
+        if (channel.size() < FIXED_HEADER) {
+            throw new IOException("Not a binary trace file");
+        }
+        ByteBuffer fixed = channel.map(FileChannel.MapMode.READ_ONLY, 0, FIXED_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not a binary trace file");
+        }
+        int version = fixed.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary trace file version " + version);
+        }
+        trace = new Trace();
+        length = fixed.getLong();
+        trace.nLags = fixed.getInt();
+        trace.nBCValues = fixed.getInt();
+        trace.maxMoments = fixed.getInt();
+        blockSize = fixed.getInt();
+        int nMoments = fixed.getInt();
+        int nAc = fixed.getInt();
+        int nBc = fixed.getInt();
+        int nBcValues = fixed.getInt();
+        acFullCount = fixed.getInt();
+        acFullLagCount = fixed.getInt();
+        trace.length = fixed.getLong();
+        payloadOffset = fixed.getLong();
+
+        long statsBytes = 8L * (nMoments + nAc + nBc) + 4L * (nAc + nBcValues + 3 * nBc);
+        acFullOffset = align(FIXED_HEADER + statsBytes);
+        ByteBuffer stats = channel.map(FileChannel.MapMode.READ_ONLY, FIXED_HEADER, statsBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        trace.moments = getDoubles(stats, nMoments);
+        trace.ac = getDoubles(stats, nAc);
+        trace.bc = getDoubles(stats, nBc);
+        trace.acLags = getInts(stats, nAc);
+        trace.bcLagValues = getInts(stats, nBcValues);
+        trace.bcLags = new int[nBc][];
+        for (int i = 0; i < nBc; i++) {
+            trace.bcLags[i] = getInts(stats, 3);
+        }
+    }
+
+    /**
+     * Builds the Trace stored in the file, reading in the full autocorrelation
+     * vector if one was stored. The raw data is not read.
+     *
+     * @return Trace with the stored characteristics.
+     * @throws IOException If can not read the file.
+     */
+    public Trace getTrace() throws IOException {
+        if (trace.acFull == null && acFullCount > 0) {
+            trace.acFull = new double[acFullCount];
+            channel.map(FileChannel.MapMode.READ_ONLY, acFullOffset, 8L * acFullCount)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(trace.acFull);
+            if (acFullLagCount > 0) {
+                trace.acFullLags = new int[acFullLagCount];
+                channel.map(FileChannel.MapMode.READ_ONLY, acFullOffset + 8L * acFullCount, 4L * acFullLagCount)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(trace.acFullLags);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * @return Number of raw IATs stored in the file (0 if only characteristics are stored).
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return Number of payload blocks.
+     */
+    public int getBlockCount() {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Maps a block of raw IATs.
+     *
+     * @param b Index of the block.
+     * @return Read-only view of the IATs of the block.
+     * @throws IOException If can not read the file.
+     */
+    public DoubleBuffer getBlock(int b) throws IOException {
+        if (b < 0 || b >= getBlockCount()) {
+            throw new IndexOutOfBoundsException(String.format("Block %d of %d", b, getBlockCount()));
+        }
+        long start = (long) b * blockSize;
+        long count = Math.min(blockSize, length - start);
+        return channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset + 8 * start, 8 * count)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Maps all the raw IATs stored in the file as a long-indexed storage,
+     * without reading them into the heap.
+     *
+     * @return Read-only storage of the IATs.
+     * @throws IOException If can not map the file.
+     */
+    public TraceStorage getStorage() throws IOException {
+        return OffHeapTraceStorage.map(channel, FileChannel.MapMode.READ_ONLY, payloadOffset, length);
+    }
+
+    /**
+     * Reads all the raw IATs stored in the file.
+     *
+     * @return Vector of IATs.
+     * @throws IOException If can not read the file.
+     */
+    public double[] getData() throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Trace too long to be read into an array");
+        }
+        double[] data = new double[(int) length];
+        int pos = 0;
+        for (int b = 0; b < getBlockCount(); b++) {
+            DoubleBuffer block = getBlock(b);
+            int n = block.remaining();
+            block.get(data, pos, n);
+            pos += n;
+        }
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void putDoubles(ByteBuffer buf, double[] values) {
+        for (double v : values) {
+            buf.putDouble(v);
+        }
+    }
+
+    private static void putInts(ByteBuffer buf, int[] values) {
+        for (int v : values) {
+            buf.putInt(v);
+        }
+    }
+
+    private static double[] getDoubles(ByteBuffer buf, int n) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = buf.getDouble();
+        }
+        return values;
+    }
+
+    private static int[] getInts(ByteBuffer buf, int n) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = buf.getInt();
+        }
+        return values;
+    }
+
+    /**
+     * Writes an array of doubles at the given file offset in little-endian order.
+     */
+    private static void writeDoubles(FileChannel ch, double[] values, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        DoubleBuffer view = buf.asDoubleBuffer();
+        int pos = 0;
+        while (pos < values.length) {
+            int n = Math.min(view.capacity(), values.length - pos);
+            view.clear();
+            view.put(values, pos, n);
+            buf.clear().limit(8 * n);
+            writeFully(ch, buf, offset + 8L * pos);
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            offset += ch.write(buf, offset);
+        }
+    }
+}
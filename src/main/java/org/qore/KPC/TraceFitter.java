@@ -20,6 +20,10 @@ import java.util.logging.Level;
  */
 public class TraceFitter {
     Trace t;
+    /**
+     * Count characteristics fitted instead of a Trace, or null.
+     */
+    CountTrace counts;
     FittingOptions options;
 
     /**
@@ -36,21 +40,33 @@ public class TraceFitter {
     }
 
     /**
-     * Fits a MAP to the Trace.
+     * Generates new fitting instance fitting the IDC and count
+     * autocorrelation of a count time series instead of the AC of a Trace.
+     * Counts do not determine the BC, so only AC fits are supported, and
+     * the number of MAPs must be set as order selection needs the full AC.
+     *
+     * @param counts Count characteristics to be fit.
+     * @param options Options employed when fitting the counts.
+     */
+    public TraceFitter(CountTrace counts, FittingOptions options) {
+        this.counts = counts;
+        this.options = options;
+        Constants.LOGGER.setLevel(Level.SEVERE);
+    }
+
+    /**
+     * Fits a MAP to the Trace. The IATs of the trace are kept, so it can be
+     * evaluated or fitted again with other options; call Trace.release once
+     * it is no longer needed to free them.
      *
      * @return List of best MAPs found to fit the trace.
      */
     public List<MAP> fit() {
+        if (counts != null && (options.numMAPs < 1 || !options.onlyAc)) {
+            throw new IllegalStateException("Counts are fitted with numMAPs set and the AC only");
+        }
         if (options.numMAPs < 1) {
-            if (options.possibleOrders > 1) {
-                int[] states = new int[options.possibleOrders];
-                for (int i = 0; i < options.possibleOrders; i++) {
-                    states[i] = i;
-                }
-                options.numMAPs = orderSelection(states);
-            } else {
-                options.numMAPs = orderSelection();
-            }
+            options.numMAPs = orderSelection(candidateOrders(options));
             System.out.printf("Order determined automatically. Fitting MAP with %d states%n", (int) Math.pow(2, options.numMAPs));
         } else {
             System.out.printf("Order determined manually. Fitting MAP with %d states%n", (int) Math.pow(2, options.numMAPs));
@@ -86,7 +102,7 @@ public class TraceFitter {
                     if (!result.isFeasible()) {
                         System.out.println("result is not feasible ");
                     }
-                    result.scale(t.moments[0], options.allowSM);
+                    result.scale(t.moments()[0], options.allowSM);
                     kpcMAPs.add(result);
                 }
                 i++;
@@ -100,11 +116,17 @@ public class TraceFitter {
                     e1[i] = 1;
                     e3[i] = 1.51 * (1 + ac.scv[i]) * (1 + ac.scv[i]);
                 }
+                MAP result;
                 if (options.allowSM) {
-                    kpcMAPs.add(KPC.composeSMMAP(e1, e3, ac.scv, ac.gamma, options.numMAPs, true));
+                    result = KPC.composeSMMAP(e1, e3, ac.scv, ac.gamma, options.numMAPs, true);
                 } else {
-                    kpcMAPs.add(KPC.composeMAP(e1, e3, ac.scv, ac.gamma, options.numMAPs, true));
+                    result = KPC.composeMAP(e1, e3, ac.scv, ac.gamma, options.numMAPs, true);
                 }
+                if (counts != null) {
+                    // the mean IAT is the one moment counts give exactly
+                    result.scale(counts.getMeanIAT(), options.allowSM);
+                }
+                kpcMAPs.add(result);
 
             }
         }
@@ -119,7 +141,7 @@ public class TraceFitter {
      */
     public ACFitResult fitAC() {
         int J = options.numMAPs;
-        ObjectiveFunction f = new ObjectiveFunction(new ACObjFunc(t, J));
+        ObjectiveFunction f = new ObjectiveFunction(counts != null ? new CountObjFunc(counts, J) : new ACObjFunc(t, J));
         SimpleBounds bounds = new SimpleBounds(createLB(J), createUB(J));
         double[] x = new double[2*J];
         for (int i = 0; i < J; i++) {
@@ -156,11 +178,11 @@ public class TraceFitter {
      */
     public BCFitResult fitBC(double[] scv, double[] gamma) {
         int J = options.numMAPs;
-        double e1val = Math.pow(t.moments[0], 1.0 / options.numMAPs);
+        double e1val = Math.pow(t.moments()[0], 1.0 / options.numMAPs);
         double[] e2 = new double[J];
         double[] x = new double[2*J];
         Arrays.fill(x, 0, J, e1val);
-        double r = Math.random() * t.moments[0];
+        double r = Math.random() * t.moments()[0];
         for (int j = 0; j < J; j++) {
             e2[j] = (1 + scv[j]) * x[j] * x[j];
             x[J + j] = (1.5 + r) * e2[j] * e2[j] / x[j];
@@ -197,7 +219,7 @@ public class TraceFitter {
             CommonOps_DDRM.concatRows(rnd, one, multiplier);
             CommonOps_DDRM.elementMult(x0, multiplier, xNext);
             x = xNext.data; // set e1 for next itr
-            r = Math.random() + t.moments[0];
+            r = Math.random() + t.moments()[0];
             for (int j = 0; j < J; j++) { // set next starting parameters
                 e2[j] = (1 + scv[j]) * x[j] * x[j];
                 x[J + j] = (1.5 + r) * e2[j] * e2[j] / x[j];
@@ -209,6 +231,32 @@ public class TraceFitter {
         return bestFit;
     }
 
+    /**
+     * Gets the numbers of MAPs fit chooses from when selecting the order,
+     * a MAP composed of n MAPs having 2^n states.
+     *
+     * @param options Options of the fit.
+     * @return Numbers of MAPs in increasing order.
+     */
+    static int[] candidateOrders(FittingOptions options) {
+        if (options.possibleOrders > 1) {
+            int[] states = new int[options.possibleOrders];
+            for (int i = 0; i < options.possibleOrders; i++) {
+                states[i] = i;
+            }
+            return states;
+        }
+        return new int[] {1, 2, 3, 4, 5, 6};
+    }
+
+    /**
+     * @param states Numbers of MAPs in increasing order.
+     * @return Number of states of the largest MAP, the largest lag shift regressed on.
+     */
+    static int maxStates(int[] states) {
+        return (int) Math.pow(2, states[states.length-1]);
+    }
+
     /**
      * Chooses the optimal order for the MAP fit
      *
@@ -235,47 +283,19 @@ public class TraceFitter {
 
     /**
      * Performs order selection using Bayseian Information Criterion (BIC).
+     * The AC is regressed over lags 0 to Trace.maxLag(), about a tenth of
+     * the trace length, beyond which it is not estimated.
      *
      * @param states Potential orders of MAP fit to choose from.
      * @return Optimal number of states according to minimal BIC.
      */
     public int findBIC(int[] states) {
-        int nlags = t.acFull.length;
-        int nLagsEnd = nlags;
-        int orderMax = (int) Math.pow(2, states[states.length-1]);
-        /*
-		for (int i = 0; i < nlags-1; i++) {
-            if (t.acFull[i+1] < Constants.CONSTRAINT_TOL) {
-                nLagsEnd = i - 1 + orderMax;
-                break;
-            }
-        }*/
-        final int NLAGSMAX = 10000;
-        int[] SAlags;
-        if (nLagsEnd > NLAGSMAX) {
-            int[] SAlagsT = Equations.logspacei(1, nLagsEnd - orderMax, NLAGSMAX);
-            double temp = NLAGSMAX - SAlagsT.length;
-            double step = Math.pow((nLagsEnd - orderMax), (1/temp));
-            int i = 0;
-            while (i < SAlagsT.length && (SAlagsT[i] - Math.round(Math.pow(step, i))) < temp) {
-                i++;
-            }
-            int newLength = SAlagsT[i] + SAlagsT.length - i;
-            SAlags = new int[newLength];
-            int jj = i;
-            for (int j = 0; j < newLength; j++) {
-                if (j < SAlagsT[i]) {
-                    SAlags[j] = j+1;
-                } else {
-                    SAlags[j] = SAlagsT[jj++]+1;
-                }
-            }
-        } else {
-            SAlags = new int[nLagsEnd - orderMax];
-            for (int i = 0; i < nLagsEnd - orderMax; i++) {
-                SAlags[i] = i;
-            }
+        if (t.getAcFull() == null) {
+            throw new IllegalStateException("Order selection needs the full AC of the trace, set numMAPs instead");
         }
+        int nlags = t.maxLag() + 1;
+        int orderMax = maxStates(states);
+        int[] SAlags = bicLags(nlags, orderMax);
         int nSamples = SAlags.length;
         double[][] allX = new double[orderMax][nSamples];
         double[] y = t.acAtLags(SAlags, nSamples);
@@ -311,6 +331,58 @@ public class TraceFitter {
         return bestOrder != -1 ? bestOrder : 3;
     }
 
+    /**
+     * Gets the lags regressed on in BIC order selection, each of which is
+     * also used shifted by 1 to orderMax.
+     *
+     * @param nlags Number of lags of the full AC, from lag 0.
+     * @param orderMax Number of states of the largest MAP considered.
+     * @return Lags of the regression samples.
+     */
+    static int[] bicLags(int nlags, int orderMax) {
+        int nLagsEnd = nlags;
+        /*
+		for (int i = 0; i < nlags-1; i++) {
+            if (t.getAcFull()[i+1] < Constants.CONSTRAINT_TOL) {
+                nLagsEnd = i - 1 + orderMax;
+                break;
+            }
+        }*/
+        final int NLAGSMAX = 10000;
+        int[] SAlags;
+        if (nLagsEnd > NLAGSMAX) {
+            int[] SAlagsT = Equations.logspacei(1, nLagsEnd - orderMax, NLAGSMAX);
+            double temp = NLAGSMAX - SAlagsT.length;
+            double step = Math.pow((nLagsEnd - orderMax), (1/temp));
+            int i = 0;
+            while (i < SAlagsT.length && (SAlagsT[i] - Math.round(Math.pow(step, i))) < temp) {
+                i++;
+            }
+            if (i == SAlagsT.length) {
+                // no switch from consecutive to log-spaced lags, keep the log-spaced ones
+                SAlags = SAlagsT.clone();
+                Equations.elementAdd(SAlags, 1);
+                return SAlags;
+            }
+            int newLength = SAlagsT[i] + SAlagsT.length - i;
+            SAlags = new int[newLength];
+            int jj = i;
+            for (int j = 0; j < newLength; j++) {
+                if (j < SAlagsT[i]) {
+                    SAlags[j] = j+1;
+                } else {
+                    SAlags[j] = SAlagsT[jj++]+1;
+                }
+            }
+        } else {
+            SAlags = new int[nLagsEnd - orderMax];
+            for (int i = 0; i < nLagsEnd - orderMax; i++) {
+                SAlags[i] = i;
+            }
+        }
+        return SAlags;
+    }
+
     /**
      * Prints to console to closeness of fit of some MAPS
      * to the trace.
@@ -318,6 +390,10 @@ public class TraceFitter {
      * @param maps The MAPs to be compared to the trace.
      */
     public void displayResults(List<MAP> maps) {
+        if (counts != null) {
+            displayCountResults(maps);
+            return;
+        }
         int bestMAP = -1;
         double bestfit = Double.MAX_VALUE;
         for (int i = 0; i < maps.size(); i++) {
@@ -341,18 +417,49 @@ public class TraceFitter {
         System.out.println("Moment\t\tOriginal Trace\t\t\t\tFit MAP\t\t\t\t\t\tDifference");
         double[] moments = best.getMoments(new int[] {1, 2, 3});
         for (int i = 0; i < 3; i++) {
-            System.out.println(i+1 + "\t\t" + t.moments[i] + "\t\t" + moments[i] + "\t\t" + (t.moments[i]- moments[i]));
+            System.out.println(i+1 + "\t\t" + t.moments()[i] + "\t\t" + moments[i] + "\t\t" + (t.moments()[i]- moments[i]));
         }
         System.out.println("\nAutocorrelation Comparison\n");
         System.out.println("Lag\t\t\tOriginal Trace\t\t\t\tFit MAP\t\t\t\t\t\tDifference");
         double[] ac = best.getAcf(new int[] {1,2,3,4,5});
         for (int i = 0; i < 5; i++) {
-            System.out.println(i+1 + "\t\t" + t.ac[i] + "\t\t\t" + ac[i] + "\t\t\t" + (t.ac[i]- ac[i]));
+            System.out.println(i+1 + "\t\t" + t.getAc()[i] + "\t\t\t" + ac[i] + "\t\t\t" + (t.getAc()[i]- ac[i]));
         }
     }
 
 
 
+    /**
+     * Prints to console the closeness of fit of some MAPs to the counts.
+     *
+     * @param maps The MAPs to be compared to the counts.
+     */
+    private void displayCountResults(List<MAP> maps) {
+        CountObjFunc f = new CountObjFunc(counts, options.numMAPs);
+        int bestMAP = -1;
+        double bestfit = Double.MAX_VALUE;
+        for (int i = 0; i < maps.size(); i++) {
+            double val = f.value(maps.get(i));
+            String s = String.format("MAP %d: Counts: %f", i+1, val);
+            if (val < bestfit) {
+                bestfit = val;
+                bestMAP = i;
+                s += "\t**** best ****";
+            }
+            System.out.println(s);
+        }
+        double[] best = f.counts(maps.get(bestMAP));
+        System.out.println("\nFitting process completed. Best MAP shown below\n");
+        System.out.println("Mean IAT\t" + counts.getMeanIAT() + "\t\t" + maps.get(bestMAP).getMean());
+        System.out.println("IDC\t\t" + f.idc + "\t\t" + best[0] / counts.getMean());
+        System.out.println("\nCount Autocorrelation Comparison\n");
+        System.out.println("Lag\t\t\tOriginal Counts\t\t\t\tFit MAP\t\t\t\t\t\tDifference");
+        for (int k = 1; k < Math.min(6, best.length); k++) {
+            double ac = best[k] / best[0];
+            System.out.println(k + "\t\t" + f.acorr[k] + "\t\t\t" + ac + "\t\t\t" + (f.acorr[k] - ac));
+        }
+    }
+
     /**
      * Creates the lower bounds of the data array to be used
      * by the Apache Optimizer.
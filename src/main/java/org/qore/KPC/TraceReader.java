@@ -0,0 +1,272 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads a text trace file of IATs into a primitive array. The file is
+ * memory-mapped and the values are parsed straight out of the mapped
+ * bytes, so no Scanner or per-value String is involved.
+ * Values may be separated by any whitespace or by commas. Gzip compressed
+ * files are detected and decompressed on a separate thread while parsing.
+ */
+public class TraceReader {
+
+    /**
+     * Maximum number of bytes mapped at once (a mapping can not exceed 2GB).
+     */
+    static final int WINDOW = 1 << 28;
+
+    /**
+     * Smallest byte range worth parsing as a separate task.
+     */
+    static final int MIN_RANGE = 1 << 20;
+
+    /**
+     * Number of threads parsing the file. 1 parses sequentially.
+     */
+    int parallelism = 1;
+
+    /**
+     * Constructor using all default arguments.
+     */
+    public TraceReader() {}
+
+    /**
+     * Sets the number of threads used to parse a file. The file is split into
+     * byte ranges aligned on value boundaries, the ranges are parsed in parallel
+     * and their values stitched together in file order.
+     *
+     * @param n Number of threads, 1 to parse sequentially.
+     * @return this reader.
+     */
+    public TraceReader setParallelism(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        parallelism = n;
+        return this;
+    }
+
+    /**
+     * @return Description of the settings that change the values read from a file.
+     */
+    String describe() {
+        return getClass().getName();
+    }
+
+    /**
+     * Reads every value of a trace file.
+     *
+     * @param path Path to the trace data file.
+     * @return Array of the values read.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public double[] read(String path) throws IOException {
+        return read(path, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads at most maxLength values of a trace file.
+     *
+     * @param path Path to the trace data file.
+     * @param maxLength Maximum number of values to read.
+     * @return Array of the values read.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public double[] read(String path, long maxLength) throws IOException {
+        TraceBuilder out = new TraceBuilder();
+        read(path, out, maxLength);
+        return out.toArray();
+    }
+
+    /**
+     * Reads every value of a trace file into single precision storage. Values
+     * are narrowed chunk by chunk while reading, so the IATs take about half
+     * the memory of a double vector.
+     *
+     * @param path Path to the trace data file.
+     * @return Storage of the values read.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public FloatTraceStorage readSinglePrecision(String path) throws IOException {
+        TraceBuilder out = new TraceBuilder(true);
+        read(path, out, Long.MAX_VALUE);
+        return out.toFloatStorage();
+    }
+
+    /**
+     * Appends at most maxLength values of a trace file to a builder.
+     * Reads bounded by maxLength and gzip compressed files are always
+     * parsed sequentially.
+     *
+     * @param path Path to the trace data file.
+     * @param out Builder the values are added to.
+     * @param maxLength Maximum number of values to read.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public void read(String path, TraceBuilder out, long maxLength) throws IOException {
+        if (GzipStage.isGzip(path)) {
+            readGzip(path, out, maxLength);
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            if (parallelism > 1 && maxLength == Long.MAX_VALUE && channel.size() > MIN_RANGE) {
+                readParallel(channel, out);
+            } else {
+                readSequential(channel, out, maxLength);
+            }
+        }
+    }
+
+    /**
+     * Parses the file window by window on the calling thread.
+     */
+    private void readSequential(FileChannel channel, TraceBuilder out, long maxLength) throws IOException {
+        long size = channel.size();
+        long pos = 0;
+        long n = 0;
+        while (pos < size && n < maxLength) {
+            int len = (int) Math.min(WINDOW, size - pos);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            int end = len;
+            if (pos + len < size) {
+                // do not split a value across two windows
+                end = TextParser.lastDelimiter(buf, 0, len) + 1;
+                if (end == 0) {
+                    throw new IOException("Value longer than " + WINDOW + " bytes at offset " + pos);
+                }
+            }
+            n += parseRange(buf, 0, end, out, maxLength - n);
+            pos += end;
+        }
+    }
+
+    /**
+     * Parses the blocks of a gzip file as they are decompressed by a GzipStage.
+     */
+    private void readGzip(String path, TraceBuilder out, long maxLength) throws IOException {
+        long n = 0;
+        try (GzipStage stage = new GzipStage(path, false)) {
+            ByteBuffer block;
+            while (n < maxLength && (block = stage.take()) != null) {
+                n += parseRange(block, 0, block.limit(), out, maxLength - n);
+                stage.release(block);
+            }
+        }
+    }
+
+    /**
+     * Splits the file into ranges ending on a delimiter, parses each range into
+     * its own builder on a fork-join pool and appends the builders in order.
+     */
+    private void readParallel(final FileChannel channel, TraceBuilder out) throws IOException {
+        long size = channel.size();
+        long nRanges = Math.max(4L * parallelism, (size + WINDOW - 1) / WINDOW);
+        long rangeSize = Math.max(MIN_RANGE, Math.min(WINDOW, (size + nRanges - 1) / nRanges));
+        final List<RangeTask> tasks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = alignedEnd(channel, start + rangeSize, size);
+            tasks.add(new RangeTask(channel, start, end, new TraceBuilder(out.singlePrecision)));
+            start = end;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        for (RangeTask task : tasks) {
+            if (task.error != null) {
+                throw task.error;
+            }
+            out.append(task.out);
+        }
+    }
+
+    /**
+     * Finds the end of a range so that it closes just after a delimiter.
+     *
+     * @return Offset after the first delimiter at or after pos, or size.
+     */
+    private static long alignedEnd(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                if (TextParser.isDelimiter(buf.get(i))) {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the values in bytes [from, to) of a buffer, which must not
+     * split a value at either end.
+     *
+     * @return Number of values added to the builder.
+     */
+    static long parseRange(ByteBuffer buf, int from, int to, TraceBuilder out, long maxCount) {
+        long n = 0;
+        int i = from;
+        while (n < maxCount) {
+            i = TextParser.skipDelimiters(buf, i, to);
+            if (i == to) {
+                break;
+            }
+            int tokenEnd = TextParser.nextDelimiter(buf, i, to);
+            out.add(TextParser.parseDouble(buf, i, tokenEnd));
+            n++;
+            i = tokenEnd;
+        }
+        return n;
+    }
+
+    /**
+     * Parses one byte range of the file into its own builder.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final FileChannel channel;
+        final long start;
+        final long end;
+        final TraceBuilder out;
+        IOException error;
+
+        RangeTask(FileChannel channel, long start, long end, TraceBuilder out) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                int len = (int) (end - start);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+                parseRange(buf, 0, len, out, Long.MAX_VALUE);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.qore.KPC;
+
+/**
+ * Long-indexed read access to the IATs of a trace, so that traces need
+ * not fit in a Java array or in the heap. Implementations must allow
+ * concurrent reads.
+ */
+public interface TraceStorage {
+
+    /**
+     * @return Number of IATs stored.
+     */
+    long size();
+
+    /**
+     * @param i Index of the IAT.
+     * @return IAT at the index.
+     */
+    double get(long i);
+
+    /**
+     * Copies a block of consecutive IATs into an array.
+     *
+     * @param from Index of the first IAT to copy.
+     * @param dst Destination array.
+     * @param off Index in the destination of the first IAT.
+     * @param len Number of IATs to copy.
+     */
+    void get(long from, double[] dst, int off, int len);
+}
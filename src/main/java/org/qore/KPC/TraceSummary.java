@@ -0,0 +1,361 @@
+package org.qore.KPC;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Mergeable summary of a shard of a trace, from which the characteristics of
+ * a concatenation of shards can be recovered exactly. A summary keeps the
+ * power sums, the sums of lagged products at the AC lags, the BC triple sums
+ * and the first and last IATs up to the largest lag. Merging two summaries
+ * adds their sums and the products of the pairs and trios that straddle the
+ * boundary, which only involve the tail of the first shard and the head of
+ * the second. Shards can thus be summarised independently and in parallel.
+ * All shards of a trace must be summarised with the same lags, set from the
+ * total length of the concatenated trace.
+ */
+public class TraceSummary {
+    /**
+     * Empty trace holding the lags captured.
+     */
+    final Trace lags;
+    /**
+     * Number of IATs at the start and end of the shard kept for merging.
+     */
+    final int edge;
+
+    long length;
+    /**
+     * Value subtracted from the IATs in the lagged product sums, to limit cancellation.
+     */
+    double shift;
+    double[] powerSums;
+    double s1;
+    double s2;
+    double[] acProducts;
+    double[] bcProducts;
+    double[] head;
+    double[] tail;
+
+    private TraceSummary(Trace lags) {
+        this.lags = lags;
+        int maxOffset = lags.acLags[lags.acLags.length-1];
+        for (int[] trio : lags.bcLags) {
+            maxOffset = Math.max(maxOffset, trio[0] - 1 + trio[1] + trio[2]);
+        }
+        edge = maxOffset;
+    }
+
+    /**
+     * Builds the lags captured for a trace of the given total length, as a Trace of that length would.
+     */
+    static Trace lagsFor(long totalLength, int nLags, int nBCValues, int maxMoments) {
+        Trace t = new Trace();
+        t.length = totalLength;
+        t.nLags = nLags;
+        t.nBCValues = nBCValues;
+        t.maxMoments = maxMoments;
+        t.initLags(t.maxLag());
+        return t;
+    }
+
+    /**
+     * Summarises a shard, capturing the default characteristics of a Trace.
+     *
+     * @param data IATs of the shard.
+     * @param totalLength Number of IATs of the concatenation of all shards.
+     * @return Summary of the shard.
+     */
+    public static TraceSummary of(double[] data, long totalLength) {
+        return of(data, totalLength, 500, 5, 10);
+    }
+
+    /**
+     * Summarises a shard.
+     *
+     * @param data IATs of the shard.
+     * @param totalLength Number of IATs of the concatenation of all shards.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Summary of the shard.
+     */
+    public static TraceSummary of(double[] data, long totalLength, int nLags, int nBCValues, int maxMoments) {
+        return of(data, lagsFor(totalLength, nLags, nBCValues, maxMoments));
+    }
+
+    static TraceSummary of(double[] data, Trace lags) {
+        TraceSummary s = new TraceSummary(lags);
+        int n = data.length;
+        s.length = n;
+        s.shift = n > 0 ? data[0] : 0;
+        double[] m = BlockedStatistics.moments(data, n, lags.maxMoments);
+        s.powerSums = new double[m.length];
+        for (int k = 0; k < m.length; k++) {
+            s.powerSums[k] = n > 0 ? m[k] * n : 0;
+        }
+        for (double x : data) {
+            double y = x - s.shift;
+            s.s1 += y;
+            s.s2 += y * y;
+        }
+        s.acProducts = AcfEngine.lagSums(data, n, s.shift, lags.acLags);
+        s.bcProducts = BlockedStatistics.bicorrelationSums(data, n, lags.bcLags);
+        s.head = Arrays.copyOf(data, Math.min(n, s.edge));
+        s.tail = Arrays.copyOfRange(data, n - s.head.length, n);
+        return s;
+    }
+
+    /**
+     * Reads and summarises a shard file.
+     *
+     * @param path Path to the shard file.
+     * @param reader Reader used to parse the file.
+     * @param totalLength Number of IATs of the concatenation of all shards.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Summary of the shard.
+     * @throws IOException If can not find or read from file specified.
+     */
+    public static TraceSummary read(String path, TraceReader reader, long totalLength,
+                                    int nLags, int nBCValues, int maxMoments) throws IOException {
+        return of(reader.read(path), lagsFor(totalLength, nLags, nBCValues, maxMoments));
+    }
+
+    /**
+     * Reads and summarises shard files in parallel, and merges the summaries
+     * in the order of the paths.
+     *
+     * @param paths Paths to the shard files, in trace order.
+     * @param reader Reader used to parse the files.
+     * @param totalLength Number of IATs of the concatenation of all shards.
+     * @param nLags Number of AC lags to capture.
+     * @param nBCValues Number of BC lags valeus to capture.
+     * @param maxMoments Number of moments to capture.
+     * @return Summary of the concatenated shards.
+     * @throws IOException If can not find or read from a file.
+     */
+    public static TraceSummary read(String[] paths, TraceReader reader, long totalLength,
+                                    int nLags, int nBCValues, int maxMoments) throws IOException {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("No shard to summarise");
+        }
+        Trace lags = lagsFor(totalLength, nLags, nBCValues, maxMoments);
+        ShardTask task = new ShardTask(paths, reader, lags, 0, paths.length);
+        TraceSummary s = Parallel.POOL.invoke(task);
+        if (task.error != null) {
+            throw task.error;
+        }
+        return s;
+    }
+
+    /**
+     * Merges the summary of the shard that follows this one, which must
+     * capture the same AC lags, BC lag trios and number of moments.
+     *
+     * @param next Summary of the next shard.
+     * @return Summary of the concatenation of this shard and the next.
+     */
+    public TraceSummary merge(TraceSummary next) {
+        if (!Arrays.equals(lags.acLags, next.lags.acLags) || !Arrays.deepEquals(lags.bcLags, next.lags.bcLags)
+                || lags.maxMoments != next.lags.maxMoments) {
+            throw new IllegalArgumentException("Can not merge summaries with different lags");
+        }
+        if (next.length == 0) {
+            return this;
+        }
+        if (length == 0) {
+            return next;
+        }
+        TraceSummary s = new TraceSummary(lags);
+        long nL = length;
+        long nR = next.length;
+        s.length = nL + nR;
+        s.shift = shift;
+        s.powerSums = new double[powerSums.length];
+        for (int k = 0; k < powerSums.length; k++) {
+            s.powerSums[k] = powerSums[k] + next.powerSums[k];
+        }
+        // sums of the next shard rebased on this shift: y' = y + delta
+        double delta = next.shift - shift;
+        s.s1 = s1 + next.s1 + nR * delta;
+        s.s2 = s2 + next.s2 + 2 * delta * next.s1 + nR * delta * delta;
+
+        double[] headPrefix = next.prefixSums(next.head);
+        double[] tailSuffix = next.suffixSums(next.tail);
+        int[] acLags = lags.acLags;
+        s.acProducts = new double[acLags.length];
+        for (int l = 0; l < acLags.length; l++) {
+            int k = acLags[l];
+            double products = acProducts[l];
+            if (nR > k) {
+                // earlier and later factor sums of the next shard
+                double earlier = next.s1 - tailSuffix[k];
+                double later = next.s1 - headPrefix[k];
+                products += next.acProducts[l] + delta * (earlier + later) + (nR - k) * delta * delta;
+            }
+            // pairs straddling the boundary
+            long from = Math.max(0, nL - k);
+            long to = Math.min(nL, nL - k + nR);
+            for (long t = from; t < to; t++) {
+                products += (valueAt(next, t) - shift) * (valueAt(next, t + k) - shift);
+            }
+            s.acProducts[l] = products;
+        }
+        int[][] bcLags = lags.bcLags;
+        s.bcProducts = new double[bcLags.length];
+        for (int r = 0; r < bcLags.length; r++) {
+            int a = bcLags[r][0] - 1;
+            int b = a + bcLags[r][1];
+            int c = b + bcLags[r][2];
+            double products = bcProducts[r] + next.bcProducts[r];
+            long from = Math.max(0, nL - c);
+            long to = Math.min(nL, nL + nR - c);
+            for (long t = from; t < to; t++) {
+                products += valueAt(next, t + a) * valueAt(next, t + b) * valueAt(next, t + c);
+            }
+            s.bcProducts[r] = products;
+        }
+
+        s.head = Arrays.copyOf(head, (int) Math.min(s.length, s.edge));
+        for (int i = head.length; i < s.head.length; i++) {
+            s.head[i] = next.head[i - head.length];
+        }
+        s.tail = new double[(int) Math.min(s.length, s.edge)];
+        int fromNext = Math.min(s.tail.length, next.tail.length);
+        int fromThis = s.tail.length - fromNext;
+        System.arraycopy(tail, tail.length - fromThis, s.tail, 0, fromThis);
+        System.arraycopy(next.tail, next.tail.length - fromNext, s.tail, fromThis, fromNext);
+        return s;
+    }
+
+    /**
+     * IAT at position t of the concatenation of this shard and the next,
+     * for positions within the edges around the boundary.
+     */
+    private double valueAt(TraceSummary next, long t) {
+        if (t < length) {
+            return tail[(int) (t - (length - tail.length))];
+        }
+        return next.head[(int) (t - length)];
+    }
+
+    /**
+     * @return Number of IATs summarised.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Builds the Trace of the IATs summarised. AC is available only at acLags,
+     * so order selection needs numMAPs to be set when fitting.
+     *
+     * @return Trace with the characteristics of the concatenated shards.
+     */
+    public Trace toTrace() {
+        if (length == 0) {
+            throw new IllegalStateException("No IATs summarised");
+        }
+        Trace t = new Trace();
+        t.length = length;
+        t.nLags = lags.nLags;
+        t.nBCValues = lags.nBCValues;
+        t.maxMoments = lags.maxMoments;
+        t.acLags = lags.acLags.clone();
+        t.bcLagValues = lags.bcLagValues.clone();
+        t.getBCLags();
+        t.moments = new double[powerSums.length];
+        for (int k = 0; k < powerSums.length; k++) {
+            t.moments[k] = powerSums[k] / length;
+        }
+        double mean = s1 / length;
+        double var = s2 - s1 * mean;
+        double[] headPrefix = prefixSums(head);
+        double[] tailSuffix = suffixSums(tail);
+        t.ac = new double[t.acLags.length];
+        for (int l = 0; l < t.acLags.length; l++) {
+            int k = t.acLags[l];
+            if (k < length) {
+                double earlier = s1 - tailSuffix[k];
+                double later = s1 - headPrefix[k];
+                t.ac[l] = (acProducts[l] - mean * (earlier + later) + (length - k) * mean * mean) / var;
+            }
+        }
+        t.bc = new double[t.bcLags.length];
+        for (int r = 0; r < t.bcLags.length; r++) {
+            long count = length - (t.bcLags[r][0] - 1 + t.bcLags[r][1] + t.bcLags[r][2]);
+            t.bc[r] = count > 0 ? bcProducts[r] / count : 0;
+        }
+        return t;
+    }
+
+    /**
+     * @return Sums of the first i IATs of the edge, shifted by this summary's
+     * shift, for i = 0 .. edge.
+     */
+    private double[] prefixSums(double[] values) {
+        double[] sums = new double[edge + 1];
+        for (int i = 0; i < edge; i++) {
+            sums[i + 1] = sums[i] + (i < values.length ? values[i] - shift : 0);
+        }
+        return sums;
+    }
+
+    /**
+     * @return Sums of the last i IATs of the edge, shifted by this summary's
+     * shift, for i = 0 .. edge.
+     */
+    private double[] suffixSums(double[] values) {
+        double[] sums = new double[edge + 1];
+        for (int i = 0; i < edge; i++) {
+            sums[i + 1] = sums[i] + (i < values.length ? values[values.length - 1 - i] - shift : 0);
+        }
+        return sums;
+    }
+
+    /**
+     * Summarises a range of shard files, splitting the range in two and
+     * merging the halves in order.
+     */
+    private static class ShardTask extends RecursiveTask<TraceSummary> {
+        private static final long serialVersionUID = 1L;
+
+        final String[] paths;
+        final TraceReader reader;
+        final Trace lags;
+        final int from;
+        final int to;
+        IOException error;
+
+        ShardTask(String[] paths, TraceReader reader, Trace lags, int from, int to) {
+            this.paths = paths;
+            this.reader = reader;
+            this.lags = lags;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TraceSummary compute() {
+            if (to - from == 1) {
+                try {
+                    return of(reader.read(paths[from]), lags);
+                } catch (IOException e) {
+                    error = e;
+                    return null;
+                }
+            }
+            int mid = (from + to) >>> 1;
+            ShardTask left = new ShardTask(paths, reader, lags, from, mid);
+            ShardTask right = new ShardTask(paths, reader, lags, mid, to);
+            left.fork();
+            TraceSummary r = right.compute();
+            TraceSummary l = left.join();
+            error = left.error != null ? left.error : right.error;
+            return error == null ? l.merge(r) : null;
+        }
+    }
+}
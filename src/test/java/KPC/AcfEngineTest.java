@@ -0,0 +1,74 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AcfEngineTest {
+
+    @Test
+    public void testDirectMatchesFFT() {
+        Random r = new Random(4);
+        int n = 5000;
+        double[] x = new double[n];
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            x[i] = (i > 0 ? 0.5 * x[i - 1] : 0) + r.nextDouble();
+            mean += x[i];
+        }
+        mean /= n;
+        int[] lags = {0, 1, 3, 250, 499, 12, n - 1, n + 5};
+        double[] full = AcfEngine.fft(x, n, mean, n - 1);
+        double[] direct = AcfEngine.direct(x, n, mean, lags);
+        double[] chosen = AcfEngine.autocorrelation(x, n, mean, lags);
+        assertEquals(full[0], direct[0], 1e-9);
+        assertEquals(1, chosen[0], 1e-12);
+        for (int i = 0; i < lags.length; i++) {
+            double expected = lags[i] < n ? full[lags[i]] : 0;
+            assertEquals(expected, direct[i], 1e-9);
+            assertEquals(expected / full[0], chosen[i], 1e-10);
+        }
+        double[] acorr = AcfEngine.autocorrelation(x, n, mean, range(n));
+        for (int k = 0; k < n; k++) {
+            assertEquals(full[k] / full[0], acorr[k], 1e-10);
+        }
+    }
+
+    @Test
+    public void testRangeOfVector() {
+        Random r = new Random(5);
+        double[] x = new double[3000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = r.nextDouble();
+        }
+        int off = 700;
+        int n = 1200;
+        double[] copy = Arrays.copyOfRange(x, off, off + n);
+        double mean = BlockedStatistics.moments(x, off, n, 1)[0];
+        assertEquals(BlockedStatistics.moments(copy, n, 1)[0], mean, 1e-12);
+        int[] lags = {0, 1, 7, 300, n - 1, n};
+        assertArrayEquals(AcfEngine.direct(copy, n, mean, lags), AcfEngine.direct(x, off, n, mean, lags), 1e-9);
+        assertArrayEquals(AcfEngine.fft(copy, n, mean, n - 1), AcfEngine.fft(x, off, n, mean, n - 1), 1e-9);
+        assertArrayEquals(AcfEngine.autocorrelation(copy, n, mean, range(n)),
+                AcfEngine.autocorrelation(x, off, n, mean, range(n)), 1e-12);
+    }
+
+    @Test
+    public void testCostModel() {
+        assertTrue(AcfEngine.fftCost(1000, 10) > AcfEngine.directCost(1000, new int[] {1, 2, 5, 10}));
+        assertTrue(AcfEngine.fftCost(1000000, 100000) < AcfEngine.directCost(1000000, range(100000)));
+    }
+
+    private static int[] range(int n) {
+        int[] lags = new int[n];
+        for (int i = 0; i < n; i++) {
+            lags[i] = i;
+        }
+        return lags;
+    }
+}
@@ -0,0 +1,51 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AcfSketchTest {
+
+    private static double[] persistent(int n) {
+        Random r = new Random(21);
+        double[] x = new double[n];
+        double level = 0;
+        for (int i = 0; i < n; i++) {
+            level = 0.999 * level + 0.0447 * r.nextGaussian();
+            x[i] = 5 + level - 0.5 * Math.log(r.nextDouble());
+        }
+        return x;
+    }
+
+    @Test
+    public void testShortLagsExact() {
+        double[] x = persistent(50000);
+        AcfSketch sketch = new AcfSketch(32);
+        sketch.add(x);
+        assertEquals(x.length, sketch.count());
+        int[] lags = {0, 1, 2, 7, 31, 32};
+        Trace t = new Trace(x);
+        assertArrayEquals(t.acAtLags(lags, lags.length), sketch.acAtLags(lags), 1e-9);
+        assertEquals(0, sketch.smoothingWidth(32));
+        assertEquals(1, sketch.smoothingWidth(33));
+    }
+
+    @Test
+    public void testLongLagsWithinBound() {
+        double[] x = persistent(400000);
+        AcfSketch sketch = new AcfSketch();
+        sketch.add(new FloatTraceStorage(x));
+        Trace t = new Trace(x);
+        int[] lags = Equations.logspacei(1, t.maxLag(), 60);
+        double[] exact = t.acAtLags(lags, lags.length);
+        double[] approx = sketch.acAtLags(lags);
+        for (int i = 0; i < lags.length; i++) {
+            assertTrue(sketch.smoothingWidth(lags[i]) < 2.0 * lags[i] / 64);
+            assertEquals("lag " + lags[i], exact[i], approx[i], 0.02);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BicorrelationSurfaceTest {
+
+    @Test
+    public void testMatchesDirectSums() {
+        double[] x = TestTraces.modulated(20000, 0.95, 17);
+        BicorrelationSurface s = BicorrelationSurface.of(x, 40, 300);
+        int[][] trios = {{1, 1, 1}, {1, 3, 17}, {1, 40, 300}, {1, 25, 128}};
+        double[] expected = BlockedStatistics.bicorrelation(x, x.length, trios);
+        double[] actual = s.atLags(trios);
+        for (int r = 0; r < trios.length; r++) {
+            assertEquals(expected[r], actual[r], 1e-9 * expected[r]);
+        }
+    }
+
+    @Test
+    public void testSmallGridAndTraceLags() {
+        double[] x = TestTraces.modulated(5000, 0.95, 17);
+        BicorrelationSurface s = BicorrelationSurface.of(x, 4, 3);
+        assertEquals(BlockedStatistics.bicorrelation(x, x.length, new int[][]{{1, 4, 3}})[0], s.get(4, 3), 0);
+
+        Trace t = new Trace(x, 50, 2, 3);
+        int[][] trios = {{1, 2, 1}, {1, 4, 2}};
+        t.setBcLags(trios, s);
+        assertArrayEquals(BlockedStatistics.bicorrelation(x, x.length, trios), t.getBc(), 0);
+        assertArrayEquals(new int[]{1, 2, 4}, t.bcLagValues);
+        assertEquals(3, t.nBCValues);
+
+        try {
+            t.setBcLags(new int[][]{{1, 2, s.getMaxJ() + 1}}, s);
+            fail("Trio outside the surface accepted");
+        } catch (IllegalArgumentException e) {
+            // j beyond the surface
+        }
+        try {
+            t.setBcLags(new int[][]{{2, 1, 1}}, s);
+            fail("Trio not starting with 1 accepted");
+        } catch (IllegalArgumentException e) {
+            // not a bicorrelation of the surface
+        }
+        assertArrayEquals(trios, t.getBcLags());
+    }
+}
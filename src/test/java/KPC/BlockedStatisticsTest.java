@@ -0,0 +1,41 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockedStatisticsTest {
+
+    @Test
+    public void testMoments() {
+        int n = 300000;
+        double[] x = TestTraces.exponential(n + 10, 9);
+        double[] m = BlockedStatistics.moments(x, n, 6);
+        for (int k = 1; k <= 6; k++) {
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += Math.pow(x[i], k);
+            }
+            assertEquals(sum / n, m[k - 1], 1e-10 * sum / n);
+        }
+        Trace t = new Trace(x, 500, 5, 6);
+        assertEquals(6, t.getMoments(6).length);
+    }
+
+    @Test
+    public void testBicorrelation() {
+        int n = 200000;
+        double[] x = TestTraces.exponential(n, 10);
+        int[][] trios = {{1, 1, 1}, {1, 5, 300}, {1, 1000, 2}};
+        double[] bc = BlockedStatistics.bicorrelation(x, n, trios);
+        for (int k = 0; k < trios.length; k++) {
+            int i = trios[k][1];
+            int j = trios[k][2];
+            double sum = 0;
+            for (int t = 0; t + i + j < n; t++) {
+                sum += x[t] * x[t + i] * x[t + i + j];
+            }
+            assertEquals(sum / (n - i - j), bc[k], 1e-12 * sum);
+        }
+    }
+}
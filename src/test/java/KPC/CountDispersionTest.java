@@ -0,0 +1,57 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountDispersionTest {
+
+    @Test
+    public void testMatchesRebinning() {
+        Random r = new Random(9);
+        double[] x = new double[100000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = -Math.log(r.nextDouble()) * (i % 1000 < 500 ? 0.2 : 1);
+        }
+        // short windows are swept over arrivals, long ones found by binary search
+        double[] windows = {0.05, 0.7, 3, 250, 4000};
+        CountDispersion d = CountDispersion.of(x, windows);
+        double time = 0;
+        for (double v : x) {
+            time += v;
+        }
+        for (int w = 0; w < windows.length; w++) {
+            int bins = (int) (time / windows[w]);
+            long[] counts = new long[bins];
+            double t = 0;
+            for (double v : x) {
+                t += v;
+                int b = (int) (t / windows[w]);
+                if (b < bins) {
+                    counts[b]++;
+                }
+            }
+            double s1 = 0;
+            double s2 = 0;
+            for (long c : counts) {
+                s1 += c;
+                s2 += c * c;
+            }
+            double mean = s1 / bins;
+            assertEquals(mean, d.getMeans()[w], 1e-12 * mean);
+            assertEquals(s2 / bins - mean * mean, d.getVariances()[w], 1e-9 * mean);
+        }
+    }
+
+    @Test
+    public void testPoissonAtTraceLags() {
+        double[] x = TestTraces.exponential(200000, 10);
+        int[] lags = {1, 10, 100, 1000};
+        double[] idc = CountDispersion.atLags(x, lags).getIDC();
+        for (int i = 0; i < lags.length; i++) {
+            assertEquals(1, idc[i], 0.15);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.qore.KPC;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CountTraceTest {
+
+    /**
+     * Counts of a Markov modulated Poisson process alternating between a
+     * slow and a fast arrival rate, in bins of width w.
+     */
+    private static long[] mmppCounts(int bins, double w, long seed) {
+        Random r = new Random(seed);
+        double[] rates = {0.5, 5};
+        double[] switching = {0.05, 0.1};
+        long[] counts = new long[bins];
+        int state = 0;
+        double time = 0;
+        double end = bins * w;
+        while (time < end) {
+            double total = rates[state] + switching[state];
+            time -= Math.log(r.nextDouble()) / total;
+            if (time >= end) {
+                break;
+            }
+            if (r.nextDouble() * total < rates[state]) {
+                counts[(int) (time / w)]++;
+            } else {
+                state = 1 - state;
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    public void testOnePassMatchesDirectSums() {
+        long[] counts = mmppCounts(5000, 2, 3);
+        for (int k = 0; k < counts.length; k++) {
+            counts[k] += 1000000;
+        }
+        int maxLag = 40;
+        CountTrace c = CountTrace.of(2, counts, maxLag);
+        int n = counts.length;
+        double mean = 0;
+        for (long count : counts) {
+            mean += count;
+        }
+        mean /= n;
+        double[] acov = new double[maxLag + 1];
+        for (int k = 0; k <= maxLag; k++) {
+            for (int t = 0; t + k < n; t++) {
+                acov[k] += (counts[t] - mean) * (counts[t + k] - mean);
+            }
+            acov[k] /= n;
+        }
+        assertEquals(n, c.getBins());
+        assertEquals(mean, c.getMean(), 1e-6);
+        assertEquals(acov[0], c.getVariance(), 1e-6);
+        assertEquals(acov[0] / mean, c.getIDC(), 1e-12);
+        assertEquals(2 / mean, c.getMeanIAT(), 1e-15);
+        assertArrayEquals(acov, c.getAutocovariance(), 1e-6);
+
+        CountTrace shortSeries = CountTrace.of(1, new long[] {3, 1, 4}, 5);
+        // deviations from the mean 8/3 are 1/3, -5/3 and 4/3
+        double[] expected = {42.0 / 27, -25.0 / 27, 4.0 / 27, 0, 0, 0};
+        assertArrayEquals(expected, shortSeries.getAutocovariance(), 1e-12);
+    }
+
+    @Test
+    public void testMapCountStatistics() {
+        double w = 3;
+        double[] poisson = Fittings2.mapExp(2).getCountCovariances(w, 3);
+        assertArrayEquals(new double[] {w / 2, 0, 0, 0}, poisson, 1e-10);
+
+        double[][] d0 = {{-1.075103950256064, 0.248102680895525},
+                         {0.534970435097334, -1.945304577679050}};
+        double[][] d1 = {{0.507576981795755, 0.319424287564784},
+                         {0.846333041249930, 0.564001101331786}};
+        MAP map = new MAP(new DMatrixRMaj(d0), new DMatrixRMaj(d1));
+        double[] cov = map.getCountCovariances(w, 2);
+        // counts of a window of 2w and 3w are sums of counts of windows of w
+        assertEquals(2 * cov[0] + 2 * cov[1], map.getCountCovariances(2 * w, 0)[0], 1e-9);
+        assertEquals(3 * cov[0] + 4 * cov[1] + 2 * cov[2], map.getCountCovariances(3 * w, 0)[0], 1e-9);
+        // the IDC of long windows tends to the SCV times 1 + 2 sum_k rho_k
+        double[] ac = map.getAcf(new int[] {1});
+        double limit = map.getSCV() * (1 + 2 * ac[0] / (1 - map.getGamma()));
+        double longWindow = 1e5;
+        assertEquals(limit, map.getCountCovariances(longWindow, 0)[0] / (map.getLambda() * longWindow), 1e-3);
+    }
+
+    @Test
+    public void testFitCounts() {
+        double w = 10;
+        long[] counts = mmppCounts(20000, w, 4);
+        CountTrace c = CountTrace.of(w, counts, 20);
+        FittingOptions options = new FittingOptions(1);
+        options.setMaxRunsAC(2);
+        options.setMaxResAC(1);
+        options.setMaxIterAC(200);
+        TraceFitter fitter = new TraceFitter(c, options);
+        List<MAP> maps = fitter.fit();
+        fitter.displayResults(maps);
+        MAP map = maps.get(0);
+        assertEquals(c.getMeanIAT(), map.getMean(), 1e-9 * c.getMeanIAT());
+        double idc = map.getCountCovariances(w, 0)[0] / (map.getLambda() * w);
+        assertEquals(c.getIDC(), idc, 0.1 * c.getIDC());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCountsNeedTheOrder() {
+        new TraceFitter(CountTrace.of(1, new long[] {1, 2, 3}, 1), new FittingOptions()).fit();
+    }
+}
@@ -0,0 +1,64 @@
+package org.qore.KPC;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FloatTraceStorageTest {
+    double[] data;
+
+    @Before
+    public void setUp() {
+        data = TestTraces.exponential(300000, 5);
+    }
+
+    @Test
+    public void testBuilderRoundTrip() {
+        TraceBuilder b = new TraceBuilder(true);
+        b.addAll(data, 0, 1000);
+        TraceBuilder other = new TraceBuilder(true);
+        other.addAll(data, 1000, data.length - 1000);
+        b.append(other);
+        FloatTraceStorage storage = b.toFloatStorage();
+        assertEquals(data.length, storage.size());
+        double[] copy = new double[data.length];
+        storage.get(0, copy, 0, copy.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals((float) data[i], copy[i], 0);
+        }
+        assertEquals((float) data[200000], storage.get(200000), 0);
+    }
+
+    @Test
+    public void testCharacteristics() {
+        Trace expected = new Trace(data);
+        Trace t = new Trace(new FloatTraceStorage(data));
+        assertArrayEquals(expected.getMoments(3), t.getMoments(3), 1e-6);
+        assertArrayEquals(expected.getAc(), t.getAc(), 1e-6);
+        assertArrayEquals(expected.getBc(), t.getBc(), 1e-5);
+    }
+
+    @Test
+    public void testReadSinglePrecision() throws IOException {
+        File file = File.createTempFile("trace", ".txt");
+        try {
+            try (PrintWriter out = new PrintWriter(file)) {
+                for (double x : data) {
+                    out.println(x);
+                }
+            }
+            FloatTraceStorage storage = new TraceReader().setParallelism(4).readSinglePrecision(file.getPath());
+            assertEquals(data.length, storage.size());
+            assertEquals((float) data[data.length - 1], storage.get(data.length - 1), 0);
+            assertEquals((float) data[123456], storage.get(123456), 0);
+        } finally {
+            file.delete();
+        }
+    }
+}
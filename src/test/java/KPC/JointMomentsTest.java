@@ -0,0 +1,52 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JointMomentsTest {
+
+    @Test
+    public void testJointMoments() {
+        double[] x = TestTraces.exponential(100000, 4);
+        int[][] lags = {{1, 3, 5}, {1, 7}, {1}, {2, 1, 1, 4}};
+        int[][] powers = {{1, 1, 1}, {2, 1}, {3}, {1, 2, 1, 3}};
+        double[] joint = JointMoments.of(x, lags, powers);
+
+        double bc = BlockedStatistics.bicorrelation(x, x.length, new int[][]{{1, 3, 5}})[0];
+        assertEquals(bc, joint[0], 1e-12 * bc);
+        double m3 = BlockedStatistics.moments(x, x.length, 3)[2];
+        assertEquals(m3, joint[2], 1e-12 * m3);
+
+        double s = 0;
+        for (int t = 0; t + 7 < x.length; t++) {
+            s += x[t] * x[t] * x[t + 7];
+        }
+        assertEquals(s / (x.length - 7), joint[1], 1e-12 * joint[1]);
+        s = 0;
+        for (int t = 0; t + 7 < x.length; t++) {
+            s += x[t + 1] * Math.pow(x[t + 2], 2) * x[t + 3] * Math.pow(x[t + 7], 3);
+        }
+        assertEquals(s / (x.length - 7), joint[3], 1e-12 * joint[3]);
+    }
+
+    @Test
+    public void testInvalidLags() {
+        double[] x = new double[100];
+        int[][][] invalid = {{{1, -2}}, {{0, 3}}, {{1, 100}}, {{50, 25, 26}}};
+        for (int[][] lags : invalid) {
+            try {
+                int[] ones = new int[lags[0].length];
+                Arrays.fill(ones, 1);
+                JointMoments.of(x, lags, new int[][]{ones});
+                fail("Lags " + Arrays.toString(lags[0]) + " accepted");
+            } catch (IllegalArgumentException e) {
+                // negative, zero or spanning the trace
+            }
+        }
+        assertEquals(0, JointMoments.of(x, new int[][]{{1, 99}}, new int[][]{{1, 1}})[0], 0);
+    }
+}
@@ -0,0 +1,68 @@
+package org.qore.KPC;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffHeapTraceStorageTest {
+    double[] data;
+
+    @Before
+    public void setUp() {
+        data = TestTraces.exponential(20000, 11);
+    }
+
+    @Test
+    public void testMatchesArrayTrace() {
+        OffHeapTraceStorage storage = OffHeapTraceStorage.allocate(data.length);
+        storage.set(0, data, 0, data.length);
+        Trace expected = new Trace(data);
+        Trace t = new Trace(storage);
+        assertEquals(expected.length, t.length);
+        assertArrayEquals(expected.getAcLags(), t.getAcLags());
+        assertArrayEquals(expected.getMoments(10), t.getMoments(10), 1e-9 * expected.getMoments(10)[9]);
+        assertArrayEquals(expected.getAc(), t.getAc(), 1e-9);
+        assertArrayEquals(expected.getBc(), t.getBc(), 1e-9);
+        assertNull(t.getAcFull());
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        File file = File.createTempFile("trace", ".bin");
+        try {
+            OffHeapTraceStorage created = OffHeapTraceStorage.create(file.getPath(), data.length);
+            for (int i = 0; i < data.length; i++) {
+                created.set(i, data[i]);
+            }
+            OffHeapTraceStorage mapped = OffHeapTraceStorage.map(file.getPath());
+            assertEquals(data.length, mapped.size());
+            double[] copy = new double[data.length];
+            mapped.get(0, copy, 0, copy.length);
+            assertArrayEquals(data, copy, 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTraceFileStorage() throws IOException {
+        File file = File.createTempFile("trace", ".kpct");
+        try {
+            TraceFile.write(file.getPath(), new Trace(data), data, 4096);
+            try (TraceFile f = TraceFile.open(file.getPath())) {
+                TraceStorage storage = f.getStorage();
+                assertEquals(data.length, storage.size());
+                assertEquals(data[12345], storage.get(12345), 0);
+                assertArrayEquals(f.getTrace().getBc(), new Trace(storage).getBc(), 1e-9);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutOfCoreAcfTest {
+
+    private static OffHeapTraceStorage store(double[] x) {
+        OffHeapTraceStorage s = OffHeapTraceStorage.allocate(x.length);
+        s.set(0, x, 0, x.length);
+        return s;
+    }
+
+    @Test
+    public void testMatchesInMemoryAcf() throws IOException {
+        double[] x = TestTraces.modulated(100003, 0.99, 31);
+        double mean = BlockedStatistics.moments(x, x.length, 1)[0];
+        int maxLag = 10001;
+        int[] lags = new int[maxLag + 1];
+        for (int k = 0; k < lags.length; k++) {
+            lags[k] = k;
+        }
+        double[] expected = AcfEngine.autocorrelation(x, x.length, mean, lags);
+        // several passes over the spectra, and a single one
+        for (int blockSize : new int[]{1024, 16384}) {
+            double[] acf = OutOfCoreAcf.autocorrelation(store(x), mean, maxLag, blockSize, null);
+            assertArrayEquals(expected, acf, 1e-10);
+        }
+    }
+
+    @Test
+    public void testTraceFromStorage() throws IOException {
+        double[] x = TestTraces.modulated(50000, 0.99, 31);
+        Trace expected = new Trace(x, 100, 3, 3);
+        Trace t = new Trace(store(x), 100, 3, 3);
+        assertNull(t.getAcFull());
+        t.generateFullAC(null);
+        assertEquals(expected.getAcFull().length, t.getAcFull().length);
+        assertArrayEquals(expected.getAcFull(), t.getAcFull(), 1e-10);
+        assertArrayEquals(expected.getAc(), t.getAc(), 1e-10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleasedStorage() throws IOException {
+        Trace t = new Trace(store(TestTraces.modulated(1000, 0.99, 31)), 20, 2, 2);
+        t.release();
+        t.generateFullAC(null);
+    }
+}
@@ -0,0 +1,74 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RealFFTTest {
+
+    @Test
+    public void testMatchesDFT() {
+        Random r = new Random(1);
+        for (int n = 2; n <= 256; n *= 2) {
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = r.nextGaussian();
+            }
+            double[] packed = x.clone();
+            RealFFT.forSize(n).forward(packed);
+            for (int k = 0; k <= n / 2; k++) {
+                double re = 0;
+                double im = 0;
+                for (int t = 0; t < n; t++) {
+                    re += x[t] * Math.cos(2 * Math.PI * k * t / n);
+                    im -= x[t] * Math.sin(2 * Math.PI * k * t / n);
+                }
+                if (k == 0) {
+                    assertEquals(re, packed[0], 1e-9);
+                } else if (k == n / 2) {
+                    assertEquals(re, packed[1], 1e-9);
+                } else {
+                    assertEquals(re, packed[2 * k], 1e-9);
+                    assertEquals(im, packed[2 * k + 1], 1e-9);
+                }
+            }
+            RealFFT.forSize(n).inverse(packed);
+            assertArrayEquals(x, packed, 1e-12);
+        }
+    }
+
+    @Test
+    public void testAutocorrelation() {
+        Random r = new Random(2);
+        double[] data = new double[3000];
+        double prev = 1;
+        for (int i = 0; i < data.length; i++) {
+            prev = 0.7 * prev + 0.3 * -Math.log(r.nextDouble());
+            data[i] = prev;
+        }
+        Trace t = new Trace(data);
+        double mean = t.getMoments(1)[0];
+        double[] acFull = t.getAcFull();
+        double var = 0;
+        for (double x : data) {
+            var += (x - mean) * (x - mean);
+        }
+        for (int k : new int[] {0, 1, 2, 17, 299}) {
+            double cov = 0;
+            for (int i = 0; i + k < data.length; i++) {
+                cov += (data[i] - mean) * (data[i + k] - mean);
+            }
+            assertEquals(cov / var, acFull[k], 1e-10);
+        }
+    }
+
+    @Test
+    public void testSharedWhileInUse() {
+        RealFFT fft = RealFFT.forSize(1 << 12);
+        assertSame(fft, RealFFT.forSize(1 << 12));
+    }
+}
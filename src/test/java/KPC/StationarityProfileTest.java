@@ -0,0 +1,36 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StationarityProfileTest {
+
+    @Test
+    public void testStationaryTrace() {
+        double[] x = TestTraces.exponential(100000, 3);
+        StationarityProfile p = StationarityProfile.of(x, 10000);
+        assertEquals(10, p.getWindowMeans().length);
+        assertTrue(p.isStationary());
+
+        double[] w = Arrays.copyOfRange(x, 30000, 40000);
+        Trace t = new Trace(w);
+        assertEquals(t.getMoments(1)[0], p.getWindowMeans()[3], 1e-12);
+        double[] ac = t.acAtLags(new int[]{1, 2, 5, 10}, 4);
+        assertArrayEquals(ac, p.getWindowAc()[3], 1e-12);
+    }
+
+    @Test
+    public void testLevelShiftIsFlagged() {
+        double[] x = TestTraces.exponential(100000, 4);
+        for (int i = 70000; i < x.length; i++) {
+            x[i] *= 3;
+        }
+        StationarityProfile p = StationarityProfile.of(x, 10000, new int[]{1, 2}, 0.2);
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, p.getDriftingWindows());
+    }
+}
@@ -0,0 +1,80 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StreamingTraceStatsTest {
+
+    private static double[] stream(int n) {
+        Random r = new Random(12);
+        double[] x = new double[n];
+        double level = 1;
+        for (int i = 0; i < n; i++) {
+            if (r.nextDouble() < 0.01) {
+                level = 0.2 + 3 * r.nextDouble();
+            }
+            x[i] = 10 + level * -Math.log(r.nextDouble());
+        }
+        return x;
+    }
+
+    @Test
+    public void testSlidingWindowMatchesTrace() {
+        int window = 2000;
+        double[] x = stream(7300);
+        StreamingTraceStats stats = StreamingTraceStats.slidingWindow(window, 100, 4, 4);
+        for (double v : x) {
+            stats.add(v);
+        }
+        Trace expected = new Trace(Arrays.copyOfRange(x, x.length - window, x.length), 100, 4, 4);
+        Trace t = stats.snapshot();
+        assertEquals(window, t.length);
+        assertArrayEquals(expected.getAcLags(), t.getAcLags());
+        double[] m = expected.getMoments(4);
+        for (int k = 0; k < 4; k++) {
+            assertEquals(m[k], t.getMoments(4)[k], 1e-9 * m[k]);
+        }
+        assertArrayEquals(expected.getAc(), t.getAc(), 1e-8);
+        for (int r = 0; r < expected.getBc().length; r++) {
+            assertEquals(expected.getBc()[r], t.getBc()[r], 1e-9 * expected.getBc()[r]);
+        }
+    }
+
+    @Test
+    public void testExponentialDecay() {
+        double decay = 0.999;
+        double[] x = stream(5000);
+        StreamingTraceStats stats = StreamingTraceStats.exponentialDecay(decay, 50, 20, 3, 2);
+        for (double v : x) {
+            stats.add(v);
+        }
+        Trace t = stats.snapshot();
+        int n = x.length;
+        double weight = 0;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double w = Math.pow(decay, n - 1 - i);
+            weight += w;
+            sum += w * x[i];
+        }
+        assertEquals(sum / weight, t.getMoments(1)[0], 1e-9);
+
+        int k = t.getAcLags()[3];
+        double mean = sum / weight;
+        double cov = 0;
+        double var = 0;
+        for (int i = 0; i < n; i++) {
+            double w = Math.pow(decay, n - 1 - i);
+            var += w * (x[i] - mean) * (x[i] - mean);
+            if (i >= k) {
+                cov += w * (x[i - k] - mean) * (x[i] - mean);
+            }
+        }
+        assertEquals(cov / var, t.getAc()[3], 1e-8);
+    }
+}
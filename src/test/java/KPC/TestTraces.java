@@ -0,0 +1,41 @@
+package org.qore.KPC;
+
+import java.util.Random;
+
+/**
+ * Synthetic IAT traces shared by the tests.
+ */
+final class TestTraces {
+
+    private TestTraces() {}
+
+    /**
+     * @return n IATs of a Poisson process of unit rate.
+     */
+    static double[] exponential(int n, long seed) {
+        Random r = new Random(seed);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = -Math.log(r.nextDouble());
+        }
+        return x;
+    }
+
+    /**
+     * Gets exponential IATs scaled by a slowly varying level, an AR(1) process
+     * around 1 of the given persistence, so that the trace is correlated at
+     * lags up to about 1 / (1 - persistence).
+     *
+     * @return n IATs of the modulated process.
+     */
+    static double[] modulated(int n, double persistence, long seed) {
+        Random r = new Random(seed);
+        double[] x = new double[n];
+        double level = 1;
+        for (int i = 0; i < n; i++) {
+            level = persistence * level + (1 - persistence) * (0.5 + r.nextDouble());
+            x[i] = level * -Math.log(r.nextDouble());
+        }
+        return x;
+    }
+}
@@ -0,0 +1,109 @@
+package org.qore.KPC;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimestampReaderTest {
+    File file;
+    long[] nanos;
+
+    @Before
+    public void setUp() throws IOException {
+        Random r = new Random(5);
+        nanos = new long[1000];
+        nanos[0] = 1697000000123456789L;
+        for (int i = 1; i < nanos.length; i++) {
+            nanos[i] = nanos[i - 1] + 1 + r.nextInt(5000000);
+        }
+        file = File.createTempFile("capture", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private double[] expectedIATs(double scale) {
+        double[] iats = new double[nanos.length - 1];
+        for (int i = 1; i < nanos.length; i++) {
+            iats[i - 1] = (nanos[i] - nanos[i - 1]) * scale;
+        }
+        return iats;
+    }
+
+    @Test
+    public void testNanosecondColumnByName() throws IOException {
+        try (Writer w = new FileWriter(file)) {
+            w.write("id,\"time_ns\",size\r\n");
+            for (int i = 0; i < nanos.length; i++) {
+                w.write(i + "," + nanos[i] + "," + (64 + i % 1400) + "\r\n");
+            }
+        }
+        double[] iats = new TimestampReader().setColumn("time_ns").setScale(1e-9).read(file.getPath());
+        assertArrayEquals(expectedIATs(1e-9), iats, 1e-15);
+    }
+
+    @Test
+    public void testFractionalSecondsByIndex() throws IOException {
+        try (Writer w = new FileWriter(file)) {
+            for (int i = 0; i < nanos.length; i++) {
+                String ts = nanos[i] / 1000000000L + "." + String.format("%09d", nanos[i] % 1000000000L);
+                w.write("tcp; " + ts + " ;x\n");
+            }
+        }
+        TimestampReader reader = new TimestampReader().setColumn(1).setDelimiter(';');
+        double[] iats = reader.read(file.getPath());
+        assertArrayEquals(expectedIATs(1e-9), iats, 1e-12);
+    }
+
+    @Test
+    public void testTraceFromTimestamps() throws IOException {
+        try (Writer w = new FileWriter(file)) {
+            for (long ts : nanos) {
+                w.write(ts + "\n");
+            }
+        }
+        Trace t = new Trace(file.getPath(), new TimestampReader().setScale(1e-9));
+        Trace expected = new Trace(expectedIATs(1e-9));
+        assertEquals(nanos.length - 1, t.length);
+        assertArrayEquals(expected.getMoments(2), t.getMoments(2), 1e-15);
+    }
+
+    @Test
+    public void testParallelRangesMatchSequential() throws IOException {
+        Random r = new Random(6);
+        long[] ts = new long[150000];
+        ts[0] = 1697000000000000000L;
+        for (int i = 1; i < ts.length; i++) {
+            ts[i] = ts[i - 1] + r.nextInt(1000000) - 1000;
+        }
+        try (Writer w = new FileWriter(file)) {
+            w.write("seq,time_ns\n");
+            for (int i = 0; i < ts.length; i++) {
+                w.write(i + "," + ts[i] + "\n");
+            }
+        }
+        assertTrue(file.length() > TraceReader.MIN_RANGE);
+        double[] expected = new double[ts.length - 1];
+        for (int i = 1; i < ts.length; i++) {
+            expected[i - 1] = (ts[i] - ts[i - 1]) * 1e-9;
+        }
+        TimestampReader reader = new TimestampReader().setColumn("time_ns").setScale(1e-9);
+        double[] sequential = reader.read(file.getPath());
+        reader.setParallelism(4);
+        double[] parallel = reader.read(file.getPath());
+        assertArrayEquals(expected, sequential, 1e-15);
+        assertArrayEquals(sequential, parallel, 0);
+    }
+}
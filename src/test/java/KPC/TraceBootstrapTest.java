@@ -0,0 +1,37 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceBootstrapTest {
+
+    @Test
+    public void testWholeTraceBlockReproducesTrace() {
+        double[] x = TestTraces.modulated(5000, 0.9, 8);
+        Trace t = new Trace(x, 50, 3, 2);
+        TraceBootstrap b = TraceBootstrap.of(x, t, x.length, 3, 1);
+        for (int r = 0; r < 3; r++) {
+            assertArrayEquals(t.getAc(), b.getAcReplicates()[r], 1e-10);
+            assertArrayEquals(t.getBc(), b.getBcReplicates()[r], 1e-10);
+        }
+    }
+
+    @Test
+    public void testIntervalsCoverEstimates() {
+        double[] x = TestTraces.modulated(20000, 0.9, 8);
+        Trace t = new Trace(x, 50, 3, 2);
+        TraceBootstrap b = TraceBootstrap.of(x, t, 500, 200, 7);
+        double[][] ac = b.acInterval(0.95);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ac[0][i] <= t.getAc()[i] && t.getAc()[i] <= ac[1][i]);
+        }
+        double[][] bc = b.bcInterval(0.95);
+        for (int i = 0; i < t.getBc().length; i++) {
+            assertTrue(bc[0][i] <= bc[1][i]);
+        }
+        TraceBootstrap again = TraceBootstrap.of(x, t, 500, 200, 7);
+        assertArrayEquals(ac[0], again.acInterval(0.95)[0], 0);
+    }
+}
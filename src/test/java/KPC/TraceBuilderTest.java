@@ -0,0 +1,43 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.nio.DoubleBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TraceBuilderTest {
+
+    @Test
+    public void testAddAcrossChunks() {
+        Random r = new Random(3);
+        double[] data = new double[3 * TraceBuilder.CHUNK_SIZE + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = r.nextDouble();
+        }
+        TraceBuilder b = new TraceBuilder();
+        int third = data.length / 3;
+        for (int i = 0; i < third; i++) {
+            b.add(data[i]);
+        }
+        b.addAll(data, third, third);
+        b.add(DoubleBuffer.wrap(data, 2 * third, data.length - 2 * third));
+        assertEquals(data.length, b.size());
+        assertArrayEquals(data, b.toArray(), 0);
+        assertEquals(0, b.size());
+    }
+
+    @Test
+    public void testBuild() {
+        double[] data = new double[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1 + (i % 7);
+        }
+        Trace built = new TraceBuilder().addAll(data, 0, data.length).build();
+        Trace t = new Trace(data);
+        assertArrayEquals(t.getMoments(3), built.getMoments(3), 0);
+        assertArrayEquals(t.getAc(), built.getAc(), 0);
+    }
+}
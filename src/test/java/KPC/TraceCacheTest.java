@@ -0,0 +1,61 @@
+package org.qore.KPC;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceCacheTest {
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("kpc-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testHitMatchesMiss() throws IOException {
+        TraceCache cache = new TraceCache(dir.getPath(), Long.MAX_VALUE);
+        double[] data = TestTraces.exponential(4000, 1);
+        Trace miss = cache.get(data, 100, 5, 10);
+        assertEquals(1, dir.listFiles().length);
+        Trace hit = cache.get(data, 100, 5, 10);
+        assertEquals(1, dir.listFiles().length);
+        assertArrayEquals(miss.getMoments(10), hit.getMoments(10), 0);
+        assertArrayEquals(miss.getAc(), hit.getAc(), 0);
+        assertArrayEquals(miss.getAcFull(), hit.getAcFull(), 0);
+        assertArrayEquals(miss.getBc(), hit.getBc(), 0);
+
+        cache.get(data, 50, 5, 10);
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        TraceCache cache = new TraceCache(dir.getPath(), Long.MAX_VALUE);
+        cache.get(TestTraces.exponential(4000, 1), 100, 5, 10);
+        long entrySize = cache.size();
+        cache = new TraceCache(dir.getPath(), 2 * entrySize);
+        File first = dir.listFiles()[0];
+        first.setLastModified(System.currentTimeMillis() - 100000);
+        cache.get(TestTraces.exponential(4000, 2), 100, 5, 10);
+        cache.get(TestTraces.exponential(4000, 3), 100, 5, 10);
+        assertEquals(2, dir.listFiles().length);
+        assertTrue(!first.exists());
+    }
+}
@@ -0,0 +1,145 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TraceCharacteristicsTest {
+
+    @Test
+    public void testComputedOnFirstAccess() {
+        double[] x = TestTraces.exponential(20000, 5);
+        Trace t = new Trace(x, 100, 3, 4);
+        assertNull(t.moments);
+        assertNull(t.ac);
+        assertNull(t.bc);
+
+        double[] ac = t.getAc();
+        assertNotNull(t.moments);
+        assertNull(t.bc);
+        assertEquals(t.maxLag() + 1, t.getAcFull().length);
+
+        double[] m = BlockedStatistics.moments(x, x.length, 4);
+        assertArrayEquals(m, t.getMoments(4), 0);
+        double[] expected = AcfEngine.autocorrelation(x, x.length, m[0], t.getAcLags());
+        assertArrayEquals(expected, ac, 1e-12);
+        assertArrayEquals(BlockedStatistics.bicorrelation(x, x.length, t.getBcLags()), t.getBc(), 0);
+    }
+
+    @Test
+    public void testRelease() {
+        Trace t = new Trace(TestTraces.exponential(1000, 5), 20, 2, 2);
+        t.getAc();
+        t.release();
+        assertNotNull(t.getAc());
+        try {
+            t.getBc();
+            fail("BC computed after release");
+        } catch (IllegalStateException e) {
+            assertEquals("trace data released before BC was computed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testArrayIsCopied() {
+        double[] x = TestTraces.exponential(1000, 5);
+        Trace t = new Trace(x, 20, 2, 2);
+        double[] m = BlockedStatistics.moments(x, x.length, 2);
+        Arrays.fill(x, 0);
+        assertArrayEquals(m, t.getMoments(2), 0);
+    }
+
+    @Test
+    public void testFitKeepsData() {
+        Trace t = new Trace(TestTraces.exponential(5000, 5), 50, 2, 3);
+        FittingOptions options = new FittingOptions(1);
+        options.setMaxRunsAC(1);
+        options.setMaxResAC(1);
+        options.setMaxIterAC(20);
+        TraceFitter fitter = new TraceFitter(t, options);
+        List<MAP> maps = fitter.fit();
+        assertNull(t.bc);
+        KPC.evaluate(t, maps.get(0), true);
+        assertNotNull(t.bc);
+        options.setOnlyAc(false);
+        options.setMaxRunsBC(1);
+        options.setMaxIterBC(20);
+        assertEquals(1, new TraceFitter(t, options).fit().size());
+    }
+
+    @Test
+    public void testRetainAcForOrderSelection() {
+        double[] x = TestTraces.exponential(2000000, 5);
+        for (int i = 1; i < x.length; i++) {
+            x[i] = 0.7 * x[i - 1] + 0.3 * x[i];
+        }
+        Trace full = new Trace(x, 100, 3, 3);
+        Trace compact = new Trace(x, 100, 3, 3);
+        FittingOptions options = new FittingOptions();
+        options.setPossibleOrders(3);
+        compact.retainAcFor(options);
+        assertTrue(compact.getAcFull().length < full.getAcFull().length / 2);
+        assertArrayEquals(full.getAc(), compact.getAc(), 1e-10);
+
+        int[] states = TraceFitter.candidateOrders(options);
+        int orderMax = TraceFitter.maxStates(states);
+        int[] lags = TraceFitter.bicLags(full.maxLag() + 1, orderMax);
+        for (int shift = 0; shift <= orderMax; shift++) {
+            assertArrayEquals(full.acAtLags(lags, lags.length), compact.acAtLags(lags, lags.length), 1e-10);
+            Equations.elementAdd(lags, 1);
+        }
+        assertEquals(new TraceFitter(full, options).findBIC(states),
+                new TraceFitter(compact, options).findBIC(states));
+
+        // a narrower second call keeps working, a broader one can not
+        compact.retainAcFor(new FittingOptions(2));
+        assertArrayEquals(full.getAc(), compact.getAc(), 1e-10);
+        options.setPossibleOrders(4);
+        try {
+            compact.retainAcFor(options);
+            fail("Retained lags dropped earlier");
+        } catch (IllegalStateException e) {
+            // lags up to 8 apart are needed, only those up to 4 apart are kept
+        }
+    }
+
+    @Test
+    public void testAcBeyondMaxLagIsZero() {
+        Trace full = new Trace(TestTraces.exponential(5000, 5), 50, 2, 2);
+        Trace compact = new Trace(TestTraces.exponential(5000, 5), 50, 2, 2);
+        compact.retainAcFor(new FittingOptions(1));
+        int maxLag = full.maxLag();
+        int[] lags = {0, 1, maxLag, maxLag + 1, maxLag + 100};
+        double[] expected = full.acAtLags(lags, lags.length);
+        assertEquals(1, expected[0], 1e-12);
+        assertEquals(0, expected[3], 0);
+        assertEquals(0, expected[4], 0);
+        assertArrayEquals(expected, compact.acAtLags(lags, lags.length), 1e-12);
+    }
+
+    @Test
+    public void testOrderSelectionOnKnownTrace() {
+        // sum of two AR(1) processes, whose AC is a sum of two geometric terms
+        Random r = new Random(7);
+        double[] x = new double[20000];
+        double p = 0;
+        double q = 0;
+        for (int i = 0; i < x.length; i++) {
+            p = 0.9 * p - Math.log(r.nextDouble());
+            q = 0.3 * q - Math.log(r.nextDouble());
+            x[i] = p + q;
+        }
+        // regressed over lags 0 to maxLag = 2000
+        TraceFitter fitter = new TraceFitter(new Trace(x), new FittingOptions());
+        assertEquals(2, fitter.orderSelection());
+    }
+}
@@ -0,0 +1,91 @@
+package org.qore.KPC;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TraceFileTest {
+    File file;
+    double[] data;
+    Trace t;
+
+    @Before
+    public void setUp() throws IOException {
+        data = TestTraces.exponential(5000, 7);
+        t = new Trace(data);
+        file = File.createTempFile("trace", ".kpct");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLoadCharacteristics() throws IOException {
+        TraceFile.write(file.getPath(), t, data);
+        Trace loaded = Trace.load(file.getPath());
+        assertArrayEquals(t.getMoments(10), loaded.getMoments(10), 0);
+        assertArrayEquals(t.getAc(), loaded.getAc(), 0);
+        assertArrayEquals(t.getAcFull(), loaded.getAcFull(), 0);
+        assertArrayEquals(t.getBc(), loaded.getBc(), 0);
+        assertArrayEquals(t.getAcLags(), loaded.getAcLags());
+        for (int i = 0; i < t.getBcLags().length; i++) {
+            assertArrayEquals(t.getBcLags()[i], loaded.getBcLags()[i]);
+        }
+    }
+
+    @Test
+    public void testRetainedAcLags() throws IOException {
+        t.retainAcFor(new FittingOptions(2));
+        TraceFile.write(file.getPath(), t, data);
+        Trace loaded = Trace.load(file.getPath());
+        assertArrayEquals(t.getAcFull(), loaded.getAcFull(), 0);
+        int[] lags = t.getAcLags();
+        assertArrayEquals(t.acAtLags(lags, lags.length), loaded.acAtLags(lags, lags.length), 0);
+        try (TraceFile f = TraceFile.open(file.getPath())) {
+            assertArrayEquals(data, f.getData(), 0);
+        }
+    }
+
+    @Test
+    public void testPayloadBlocks() throws IOException {
+        TraceFile.write(file.getPath(), t, data, 1024);
+        try (TraceFile f = TraceFile.open(file.getPath())) {
+            assertEquals(data.length, f.length());
+            assertEquals(5, f.getBlockCount());
+            DoubleBuffer last = f.getBlock(4);
+            assertEquals(data.length - 4 * 1024, last.remaining());
+            assertEquals(data[4 * 1024], last.get(0), 0);
+            assertArrayEquals(data, f.getData(), 0);
+        }
+    }
+
+    @Test
+    public void testCharacteristicsOnly() throws IOException {
+        TraceFile.write(file.getPath(), t, null);
+        try (TraceFile f = TraceFile.open(file.getPath())) {
+            assertEquals(0, f.length());
+            assertArrayEquals(t.getAc(), f.getTrace().getAc(), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionRejected() throws IOException {
+        TraceFile.write(file.getPath(), t, null);
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek(4);
+            // little-endian version 2
+            f.write(new byte[] {2, 0, 0, 0});
+        }
+        Trace.load(file.getPath());
+    }
+}
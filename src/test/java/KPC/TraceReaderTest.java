@@ -0,0 +1,114 @@
+package org.qore.KPC;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TraceReaderTest {
+    File file;
+    double[] values;
+
+    @Before
+    public void setUp() throws IOException {
+        Random r = new Random(42);
+        values = new double[20000];
+        file = File.createTempFile("trace", ".txt");
+        try (Writer w = new FileWriter(file)) {
+            for (int i = 0; i < values.length; i++) {
+                String s = format(i, -Math.log(r.nextDouble()) * 0.003);
+                w.write(i % 4 == 3 ? "  " + s + ",\r\n" : s + "\n");
+                values[i] = Double.parseDouble(s);
+            }
+        }
+    }
+
+    private String format(int i, double v) {
+        switch (i % 4) {
+            case 0: return Double.toString(v);
+            case 1: return String.format(Locale.ROOT, "%.6e", v);
+            case 2: return String.format(Locale.ROOT, "%.18f", v);
+            default: return String.format(Locale.ROOT, "%.9f", v);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testReadMatchesParseDouble() throws IOException {
+        double[] read = new TraceReader().read(file.getPath());
+        assertArrayEquals(values, read, 0);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        File big = File.createTempFile("trace", ".txt");
+        Random r = new Random(11);
+        double[] expected = new double[150000];
+        try (Writer w = new FileWriter(big)) {
+            for (int i = 0; i < expected.length; i++) {
+                String s = format(i, -Math.log(r.nextDouble()));
+                w.write(s + "\n");
+                expected[i] = Double.parseDouble(s);
+            }
+        }
+        try {
+            double[] read = new TraceReader().setParallelism(4).read(big.getPath());
+            assertArrayEquals(expected, read, 0);
+        } finally {
+            big.delete();
+        }
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        File gz = File.createTempFile("trace", ".txt.gz");
+        try {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+            assertArrayEquals(values, new TraceReader().read(gz.getPath()), 0);
+            assertEquals(values[9], new TraceReader().read(gz.getPath(), 10)[9], 0);
+        } finally {
+            gz.delete();
+        }
+    }
+
+    @Test
+    public void testMaxLength() throws IOException {
+        double[] read = new TraceReader().read(file.getPath(), 100);
+        assertEquals(100, read.length);
+        assertEquals(values[99], read[99], 0);
+    }
+
+    @Test
+    public void testTraceFromFile() throws IOException {
+        Trace fromFile = new Trace(file.getPath());
+        Trace fromArray = new Trace(values);
+        assertArrayEquals(fromArray.getMoments(3), fromFile.getMoments(3), 0);
+        assertArrayEquals(fromArray.getAc(), fromFile.getAc(), 0);
+        assertArrayEquals(fromArray.getBc(), fromFile.getBc(), 0);
+    }
+}
@@ -0,0 +1,100 @@
+package org.qore.KPC;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TraceSummaryTest {
+
+    private static double[] trace(int n) {
+        Random r = new Random(21);
+        double[] x = new double[n];
+        double level = 1;
+        for (int i = 0; i < n; i++) {
+            if (r.nextDouble() < 0.02) {
+                level = 0.1 + 2 * r.nextDouble();
+            }
+            x[i] = 5 + level * -Math.log(r.nextDouble());
+        }
+        return x;
+    }
+
+    private static void assertSameCharacteristics(Trace expected, Trace t) {
+        assertEquals(expected.length, t.length);
+        assertArrayEquals(expected.getAcLags(), t.getAcLags());
+        double[] m = expected.getMoments(4);
+        for (int k = 0; k < 4; k++) {
+            assertEquals(m[k], t.getMoments(4)[k], 1e-10 * m[k]);
+        }
+        assertArrayEquals(expected.getAc(), t.getAc(), 1e-9);
+        for (int r = 0; r < expected.getBc().length; r++) {
+            assertEquals(expected.getBc()[r], t.getBc()[r], 1e-10 * expected.getBc()[r]);
+        }
+    }
+
+    @Test
+    public void testMergeMatchesConcatenation() {
+        double[] x = trace(20000);
+        // shards shorter and longer than the largest lag
+        int[] cuts = {0, 7000, 7100, 7150, 15000, 20000};
+        TraceSummary s = null;
+        for (int i = 0; i + 1 < cuts.length; i++) {
+            double[] shard = Arrays.copyOfRange(x, cuts[i], cuts[i + 1]);
+            TraceSummary next = TraceSummary.of(shard, x.length, 100, 4, 4);
+            s = s == null ? next : s.merge(next);
+        }
+        assertSameCharacteristics(new Trace(x, 100, 4, 4), s.toTrace());
+    }
+
+    @Test
+    public void testReadShards() throws IOException {
+        double[] x = trace(9000);
+        String[] paths = new String[3];
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                File file = File.createTempFile("shard", ".txt");
+                paths[i] = file.getPath();
+                try (PrintWriter out = new PrintWriter(file)) {
+                    for (int j = i * 3000; j < (i + 1) * 3000; j++) {
+                        out.println(Double.toString(x[j]));
+                    }
+                }
+            }
+            TraceSummary s = TraceSummary.read(paths, new TraceReader(), x.length, 50, 3, 4);
+            assertSameCharacteristics(new Trace(x, 50, 3, 4), s.toTrace());
+        } finally {
+            for (String path : paths) {
+                if (path != null) {
+                    new File(path).delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMergeNeedsSameLags() {
+        double[] x = trace(4000);
+        Trace lags = TraceSummary.lagsFor(x.length, 50, 3, 4);
+        TraceSummary left = TraceSummary.of(Arrays.copyOfRange(x, 0, 2000), lags);
+        Trace otherTrios = TraceSummary.lagsFor(x.length, 50, 3, 4);
+        otherTrios.bcLags = otherTrios.bcLags.clone();
+        otherTrios.bcLags[0] = new int[] {1, 7, 9};
+        Trace otherMoments = TraceSummary.lagsFor(x.length, 50, 3, 5);
+        for (Trace other : new Trace[] {otherTrios, otherMoments}) {
+            try {
+                left.merge(TraceSummary.of(Arrays.copyOfRange(x, 2000, 4000), other));
+                fail("merged summaries of different lags");
+            } catch (IllegalArgumentException e) {
+                // the BC sums or moments would not add up
+            }
+        }
+    }
+}
@@ -66,9 +66,9 @@ public class TraceTest extends TestCase {
             DMatrixRMaj data = t.getData(path);
             t.generateAC(data);
             for (int i = 0; i < 10; i++) {
-                assertEquals(real_ac[i], t.ac[i], 1e-7);
+                assertEquals(real_ac[i], t.getAc()[i], 1e-7);
             }
-            System.out.println(Arrays.toString(t.ac));
+            System.out.println(Arrays.toString(t.getAc()));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -87,7 +87,7 @@ public class TraceTest extends TestCase {
             DMatrixRMaj data = t.getData(path);
             t.generateBC(data);
             for (int i = 0; i < 5; i++) {
-                assertEquals(real_bc[i], t.bc[i], tol);
+                assertEquals(real_bc[i], t.getBc()[i], tol);
             }
         } catch (IOException e) {
             e.printStackTrace();